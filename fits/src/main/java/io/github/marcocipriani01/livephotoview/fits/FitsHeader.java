@@ -0,0 +1,123 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview.fits;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * The primary header of a FITS file. Only the header blocks are read, the data unit is never touched.
+ */
+class FitsHeader {
+
+    static final int BLOCK_SIZE = 2880;
+    private static final int CARD_SIZE = 80;
+    private static final int KEYWORD_SIZE = 8;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final HashMap<String, String> values = new HashMap<>();
+    private final long dataOffset;
+
+    FitsHeader(FileChannel channel) throws IOException {
+        final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        final byte[] card = new byte[CARD_SIZE];
+        long position = 0;
+        boolean end = false;
+        while (!end) {
+            block.clear();
+            while (block.hasRemaining()) {
+                if (channel.read(block, position + block.position()) < 0)
+                    throw new EOFException("Truncated FITS header");
+            }
+            block.flip();
+            position += BLOCK_SIZE;
+            while (block.remaining() >= CARD_SIZE) {
+                block.get(card);
+                String keyword = new String(card, 0, KEYWORD_SIZE, ASCII).trim();
+                if (keyword.equals("END")) {
+                    end = true;
+                    break;
+                }
+                if ((card[KEYWORD_SIZE] == '=') && (card[KEYWORD_SIZE + 1] == ' ')) {
+                    values.put(keyword, parseValue(new String(card, KEYWORD_SIZE + 2,
+                            CARD_SIZE - KEYWORD_SIZE - 2, ASCII)));
+                }
+            }
+            if ((position == BLOCK_SIZE) && !"T".equals(values.get("SIMPLE")))
+                throw new IOException("Not a FITS file");
+        }
+        dataOffset = position;
+    }
+
+    private static String parseValue(String field) {
+        field = field.trim();
+        if (field.startsWith("'")) {
+            // String value, with '' as escaped quote
+            StringBuilder builder = new StringBuilder();
+            for (int i = 1; i < field.length(); i++) {
+                char c = field.charAt(i);
+                if (c == '\'') {
+                    if ((i + 1 < field.length()) && (field.charAt(i + 1) == '\'')) {
+                        builder.append('\'');
+                        i++;
+                    } else {
+                        break;
+                    }
+                } else {
+                    builder.append(c);
+                }
+            }
+            return builder.toString().trim();
+        }
+        int comment = field.indexOf('/');
+        return ((comment >= 0) ? field.substring(0, comment) : field).trim();
+    }
+
+    /**
+     * @return the offset of the data unit from the beginning of the file
+     */
+    long getDataOffset() {
+        return dataOffset;
+    }
+
+    String getString(String keyword) {
+        return values.get(keyword);
+    }
+
+    int getInt(String keyword, int defaultValue) {
+        String value = values.get(keyword);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    double getDouble(String keyword, double defaultValue) {
+        String value = values.get(keyword);
+        if (value == null) return defaultValue;
+        try {
+            return Double.parseDouble(value.replace('D', 'E'));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
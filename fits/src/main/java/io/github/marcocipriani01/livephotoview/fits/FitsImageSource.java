@@ -0,0 +1,326 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview.fits;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import io.github.marcocipriani01.livephotoview.CacheableRegionSource;
+import io.github.marcocipriani01.livephotoview.RegionSource;
+import io.github.marcocipriani01.livephotoview.TileCache;
+
+/**
+ * A {@link RegionSource} backed by a memory-mapped FITS file. Opening the file doesn't read it:
+ * the header is parsed on first use and the data unit is memory-mapped, so that only the pages
+ * covering the decoded regions are ever loaded, and the Java heap only holds the decoded tiles.
+ * <p>
+ * 2D images and 3-plane RGB cubes are supported, with any standard BITPIX. Values are stretched
+ * linearly to 8 bits, and rows are displayed following the FITS convention, with the first row at the bottom.
+ * Subsampled regions average each block of pixels, so that faint stars don't drop out when zoomed out.
+ * Decoded tiles are cached by the {@link TileCache}, keyed by path, size, modification time and levels.
+ */
+@SuppressWarnings("unused")
+public class FitsImageSource implements CacheableRegionSource, Closeable {
+
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+    private static final int STATS_SAMPLES = 256 * 1024;
+    private static final double BLACK_PERCENTILE = 0.005;
+    private static final double WHITE_PERCENTILE = 0.999;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private volatile FitsHeader header;
+    // Path, size and modification time of the file, read with the header
+    private String fileKey;
+    private int width;
+    private int height;
+    private int planes;
+    private int bitpix;
+    private int bytesPerPixel;
+    private double bzero;
+    private double bscale;
+    private volatile MappedByteBuffer[] segments;
+    private int rowsPerSegment;
+    private volatile double black = Double.NaN;
+    private volatile double white = Double.NaN;
+    private volatile boolean manualLevels = false;
+
+    /**
+     * Opens a FITS file. Nothing is read until the image is first used.
+     */
+    public FitsImageSource(File file) throws IOException {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Parses the primary header, if not done yet.
+     *
+     * @throws IOException if the file is not a supported FITS image
+     */
+    public void readHeader() throws IOException {
+        if (header != null) return;
+        synchronized (this) {
+            if (header != null) return;
+            FitsHeader header = new FitsHeader(channel);
+            int naxis = header.getInt("NAXIS", 0);
+            int bitpix = header.getInt("BITPIX", 0);
+            if ((naxis < 2) || (naxis > 3))
+                throw new IOException("Unsupported number of axes: " + naxis);
+            switch (bitpix) {
+                case 8:
+                case 16:
+                case 32:
+                case -32:
+                case -64:
+                    break;
+                default:
+                    throw new IOException("Unsupported BITPIX: " + bitpix);
+            }
+            width = header.getInt("NAXIS1", 0);
+            height = header.getInt("NAXIS2", 0);
+            planes = (naxis == 3) ? header.getInt("NAXIS3", 1) : 1;
+            if ((width <= 0) || (height <= 0) || (planes <= 0))
+                throw new IOException("Invalid image size");
+            this.bitpix = bitpix;
+            bytesPerPixel = Math.abs(bitpix) / 8;
+            bzero = header.getDouble("BZERO", 0.0);
+            bscale = header.getDouble("BSCALE", 1.0);
+            fileKey = file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+            this.header = header;
+        }
+    }
+
+    private FitsHeader header() {
+        try {
+            readHeader();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read " + file, e);
+        }
+        return header;
+    }
+
+    /**
+     * @return the value of a header keyword, or {@code null} if missing
+     */
+    public String getHeaderValue(String keyword) {
+        return header().getString(keyword);
+    }
+
+    @Override
+    public int getWidth() {
+        header();
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        header();
+        return height;
+    }
+
+    /**
+     * @return {@code true} if the image is a 3-plane RGB cube
+     */
+    public boolean isColor() {
+        header();
+        return planes >= 3;
+    }
+
+    /**
+     * Sets the physical values mapped to black and white. By default they are estimated from
+     * evenly spaced rows of the image the first time a region is decoded.
+     */
+    public synchronized void setLevels(double black, double white) {
+        if (white <= black) throw new IllegalArgumentException("White level must be above black level");
+        this.black = black;
+        this.white = white;
+        manualLevels = true;
+    }
+
+    /**
+     * Changes with the levels: tiles decoded before {@link #setLevels(double, double)} are not reused.
+     * The file is only examined once, when the header is read.
+     */
+    @Override
+    public String getCacheKey() {
+        header();
+        synchronized (this) {
+            // Automatic levels only depend on the file contents
+            return fileKey + ':' + (manualLevels ? (black + ":" + white) : "auto");
+        }
+    }
+
+    @Override
+    public Bitmap decodeRegion(Rect region, int sampleSize) {
+        header();
+        try {
+            mapData();
+        } catch (IOException e) {
+            return null;
+        }
+        if (Double.isNaN(black)) computeLevels();
+        final int outWidth = (region.width() + sampleSize - 1) / sampleSize,
+                outHeight = (region.height() + sampleSize - 1) / sampleSize;
+        final Bitmap bitmap = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        final int[] row = new int[outWidth];
+        final double offset = black, factor = 255.0 / (white - black);
+        final int channels = (planes >= 3) ? 3 : 1;
+        // The sum and number of valid values of each output pixel, per channel
+        final double[][] sums = new double[channels][outWidth];
+        final int[][] counts = new int[channels][outWidth];
+        for (int y = 0; y < outHeight; y++) {
+            final int top = region.top + y * sampleSize, bottom = Math.min(top + sampleSize, region.bottom);
+            for (int c = 0; c < channels; c++) {
+                final double[] sum = sums[c];
+                final int[] count = counts[c];
+                Arrays.fill(sum, 0.0);
+                Arrays.fill(count, 0);
+                for (int sourceY = top; sourceY < bottom; sourceY++) {
+                    // FITS stores the bottom row first
+                    final int fitsRow = height - 1 - sourceY;
+                    for (int column = region.left; column < region.right; column++) {
+                        final double value = read(c, fitsRow, column);
+                        if (Double.isNaN(value)) continue;
+                        final int x = (column - region.left) / sampleSize;
+                        sum[x] += value;
+                        count[x]++;
+                    }
+                }
+            }
+            for (int x = 0; x < outWidth; x++) {
+                if (channels == 3) {
+                    row[x] = 0xff000000 | (stretch(mean(sums[0], counts[0], x), offset, factor) << 16) |
+                            (stretch(mean(sums[1], counts[1], x), offset, factor) << 8) |
+                            stretch(mean(sums[2], counts[2], x), offset, factor);
+                } else {
+                    int v = stretch(mean(sums[0], counts[0], x), offset, factor);
+                    row[x] = 0xff000000 | (v << 16) | (v << 8) | v;
+                }
+            }
+            bitmap.setPixels(row, 0, outWidth, 0, y, outWidth, 1);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        randomAccessFile.close();
+    }
+
+    private static double mean(double[] sum, int[] count, int x) {
+        return (count[x] == 0) ? Double.NaN : (sum[x] / count[x]);
+    }
+
+    private static int stretch(double value, double offset, double factor) {
+        if (Double.isNaN(value)) return 0;
+        double v = (value - offset) * factor;
+        return (v <= 0) ? 0 : ((v >= 255) ? 255 : (int) v);
+    }
+
+    /**
+     * Maps the data unit, split in segments made of whole rows so that files larger than 2 GB are supported.
+     */
+    private void mapData() throws IOException {
+        if (segments != null) return;
+        synchronized (this) {
+            if (segments != null) return;
+            final long rowBytes = (long) width * bytesPerPixel;
+            final long totalRows = (long) height * planes;
+            // Segments are made of whole rows, and each row must be addressable with an int index
+            if (rowBytes > MAX_SEGMENT_SIZE)
+                throw new IOException("Image rows larger than " + MAX_SEGMENT_SIZE + " bytes are not supported");
+            rowsPerSegment = (int) Math.min(totalRows, MAX_SEGMENT_SIZE / rowBytes);
+            final int count = (int) ((totalRows + rowsPerSegment - 1) / rowsPerSegment);
+            final long available = channel.size() - header.getDataOffset();
+            if (available < totalRows * rowBytes) throw new IOException("Truncated FITS data");
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long rows = Math.min(rowsPerSegment, totalRows - (long) i * rowsPerSegment);
+                // FITS data is big-endian, like the default ByteBuffer order
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        header.getDataOffset() + (long) i * rowsPerSegment * rowBytes, rows * rowBytes);
+            }
+            this.segments = segments;
+        }
+    }
+
+    private double read(int plane, int fitsRow, int column) {
+        final int row = plane * height + fitsRow;
+        final MappedByteBuffer segment = segments[row / rowsPerSegment];
+        final int index = ((row % rowsPerSegment) * width + column) * bytesPerPixel;
+        final double raw;
+        switch (bitpix) {
+            case 8:
+                raw = segment.get(index) & 0xff;
+                break;
+            case 16:
+                raw = segment.getShort(index);
+                break;
+            case 32:
+                raw = segment.getInt(index);
+                break;
+            case -32:
+                raw = segment.getFloat(index);
+                break;
+            default:
+                raw = segment.getDouble(index);
+                break;
+        }
+        return bzero + bscale * raw;
+    }
+
+    /**
+     * Estimates the black and white levels from evenly spaced whole rows of the first plane. Whole rows
+     * keep every star crossing them in the sample, and are read from contiguous pages of the file.
+     */
+    private synchronized void computeLevels() {
+        if (!Double.isNaN(black)) return;
+        final int rows = (int) Math.max(1, Math.min(height, STATS_SAMPLES / width));
+        final int columns = Math.min(width, STATS_SAMPLES);
+        double[] samples = new double[rows * columns];
+        int valid = 0;
+        for (int i = 0; i < rows; i++) {
+            final int fitsRow = (int) ((long) i * height / rows);
+            for (int x = 0; x < columns; x++) {
+                double value = read(0, fitsRow, x);
+                if (!Double.isNaN(value)) samples[valid++] = value;
+            }
+        }
+        if (valid == 0) {
+            black = 0;
+            white = 1;
+            return;
+        }
+        Arrays.sort(samples, 0, valid);
+        double low = samples[(int) (BLACK_PERCENTILE * (valid - 1))],
+                high = samples[(int) (WHITE_PERCENTILE * (valid - 1))];
+        if (high <= low) high = low + 1;
+        white = high;
+        black = low;
+    }
+}
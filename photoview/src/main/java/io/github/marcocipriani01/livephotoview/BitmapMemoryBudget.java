@@ -0,0 +1,154 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the bitmaps held by all the {@link PhotoView} instances of the process within a memory budget.
+ * When the budget is exceeded, the views drawn least recently lose first their high-resolution tiles and
+ * then their whole image, which is decoded again once they are back on screen. Only views displaying a
+ * {@link RegionSource} or an {@link ImageSource} can be evicted, since plain bitmaps couldn't be restored,
+ * but they count towards the budget. Views on screen are never evicted, unless the UI is hidden.
+ * Everything runs on the main thread.
+ */
+final class BitmapMemoryBudget implements ComponentCallbacks2 {
+
+    private static BitmapMemoryBudget instance;
+
+    private final Set<PhotoView> views = Collections.newSetFromMap(new WeakHashMap<PhotoView, Boolean>());
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkPosted = false;
+            trimTo(budget, false);
+        }
+    };
+    private long budget = Runtime.getRuntime().maxMemory() / 4;
+    private boolean checkPosted = false;
+    private boolean registered = false;
+
+    private BitmapMemoryBudget() {
+    }
+
+    static BitmapMemoryBudget getInstance() {
+        if (instance == null) instance = new BitmapMemoryBudget();
+        return instance;
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    void setBudget(long bytes) {
+        if (bytes <= 0) throw new IllegalArgumentException("The memory budget must be positive");
+        budget = bytes;
+        requestCheck();
+    }
+
+    /**
+     * Starts tracking a view, and the memory warnings of its application.
+     */
+    void register(PhotoView view) {
+        views.add(view);
+        if (!registered) {
+            Context context = view.getContext().getApplicationContext();
+            if (context != null) {
+                context.registerComponentCallbacks(this);
+                registered = true;
+            }
+        }
+        requestCheck();
+    }
+
+    /**
+     * Called when the bitmaps held by a view change, the budget is enforced once per frame at most.
+     */
+    void requestCheck() {
+        if (!checkPosted) {
+            checkPosted = true;
+            handler.post(checkRunnable);
+        }
+    }
+
+    /**
+     * @return the number of bytes held by all the tracked views
+     */
+    long getTotalBytes() {
+        long total = 0;
+        for (PhotoView view : views) {
+            total += view.getBitmapByteCount();
+        }
+        return total;
+    }
+
+    private void trimTo(long target, boolean includeVisible) {
+        long total = getTotalBytes();
+        if (total <= target) return;
+        ArrayList<PhotoView> candidates = new ArrayList<>(views);
+        Collections.sort(candidates, new Comparator<PhotoView>() {
+            @Override
+            public int compare(PhotoView a, PhotoView b) {
+                return Long.compare(a.getLastDrawTime(), b.getLastDrawTime());
+            }
+        });
+        // Drop the high-resolution data first, and the whole images only if that's not enough
+        for (int pass = 0; pass < 2; pass++) {
+            for (PhotoView view : candidates) {
+                if (total <= target) return;
+                if (!includeVisible && view.isOnScreen()) continue;
+                long before = view.getBitmapByteCount();
+                view.trimBitmapMemory(pass == 0);
+                total -= before - view.getBitmapByteCount();
+            }
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        TileCache.getInstance().trimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            trimTo(0, true);
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimTo(budget / 4, false);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(budget / 2, false);
+        } else {
+            trimTo(budget * 3 / 4, false);
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        TileCache.getInstance().trimMemory(TRIM_MEMORY_COMPLETE);
+        trimTo(0, false);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+/**
+ * Serves regions of an in-memory bitmap too large to be drawn at once, so that it can be displayed
+ * by a {@link TileRenderer}. Regions are copied, and scaled down when subsampled.
+ */
+class BitmapRegionSource implements RegionSource {
+
+    /**
+     * The largest bitmap a Canvas accepts, in bytes.
+     */
+    static final int MAX_BITMAP_BYTES = 100 * 1024 * 1024;
+
+    private volatile Bitmap bitmap;
+
+    BitmapRegionSource(Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * @param canvas the canvas the bitmap is about to be drawn on
+     * @return {@code true} if the bitmap can't be drawn on the given canvas in one piece
+     */
+    static boolean isOversize(Bitmap bitmap, Canvas canvas) {
+        if (!canvas.isHardwareAccelerated()) return false;
+        return (bitmap.getWidth() > canvas.getMaximumBitmapWidth()) ||
+                (bitmap.getHeight() > canvas.getMaximumBitmapHeight()) ||
+                (bitmap.getAllocationByteCount() > MAX_BITMAP_BYTES);
+    }
+
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * Replaces the bitmap with another one of the same size, e.g. the next live frame.
+     */
+    void setBitmap(Bitmap bitmap) {
+        if ((bitmap.getWidth() != getWidth()) || (bitmap.getHeight() != getHeight()))
+            throw new IllegalArgumentException("The new bitmap must have the same size");
+        this.bitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public Bitmap decodeRegion(Rect region, int sampleSize) {
+        final Bitmap bitmap = this.bitmap;
+        if (sampleSize == 1)
+            return Bitmap.createBitmap(bitmap, region.left, region.top, region.width(), region.height());
+        final Matrix matrix = new Matrix();
+        matrix.setScale(1f / sampleSize, 1f / sampleSize);
+        return Bitmap.createBitmap(bitmap, region.left, region.top, region.width(), region.height(), matrix, true);
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * A {@link RegionSource} whose decoded tiles can be cached across {@link PhotoView} instances, and
+ * across opens of the same image when the disk tier of the {@link TileCache} is enabled.
+ */
+public interface CacheableRegionSource extends RegionSource {
+
+    /**
+     * @return a key identifying the decoded output: two sources with the same key must decode the same
+     * pixels for the same region, so it should include e.g. the file path, its modification time and
+     * any setting that changes the rendering
+     */
+    String getCacheKey();
+}
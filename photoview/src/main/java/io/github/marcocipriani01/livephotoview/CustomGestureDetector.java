@@ -17,27 +17,54 @@
 package io.github.marcocipriani01.livephotoview;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
-import android.view.VelocityTracker;
 import android.view.ViewConfiguration;
 
 /**
- * Does a whole lot of gesture detecting.
+ * Does a whole lot of gesture detecting. Pointers are tracked by ID in fixed arrays, so any number of them
+ * is handled and the processing of an event doesn't allocate nor throw.
  */
 class CustomGestureDetector {
 
     private static final int INVALID_POINTER_ID = -1;
+    /**
+     * Pointer IDs are always below this value.
+     */
+    private static final int MAX_POINTER_ID = 32;
+    /**
+     * How far ahead of the current time the pointer is predicted in low-latency mode, about one frame
+     * for the input to reach the screen.
+     */
+    private static final long PREDICTION_TIME = 16;
     private final ScaleGestureDetector mDetector;
     private final float mTouchSlop;
     private final float mMinimumVelocity;
+    private final VelocityEstimator mVelocityEstimator = new VelocityEstimator();
+    // The pointers down, as a bit mask of their IDs, and their last positions
+    private final float[] mPointerX = new float[MAX_POINTER_ID];
+    private final float[] mPointerY = new float[MAX_POINTER_ID];
+    private int mPointerMask = 0;
     private int mActivePointerId = INVALID_POINTER_ID;
-    private int mActivePointerIndex = 0;
-    private VelocityTracker mVelocityTracker;
     private boolean mIsDragging;
     private float mLastTouchX;
     private float mLastTouchY;
+    // Added to the active pointer position for the velocity, so that it stays continuous when the pointer changes
+    private float mVelocityOffsetX;
+    private float mVelocityOffsetY;
+    // Processing time statistics
+    private long mEventCount = 0;
+    private long mEventNanos = 0;
+    private long mMaxEventNanos = 0;
     private final OnGestureListener mListener;
+    // Low-latency mode
+    private final MotionPredictor mDragPredictor = new MotionPredictor();
+    private final MotionPredictor mFocusPredictor = new MotionPredictor();
+    // The span is predicted on the x axis only
+    private final MotionPredictor mSpanPredictor = new MotionPredictor();
+    private boolean mLowLatency = false;
+    private MotionEvent mCurrentEvent;
 
     CustomGestureDetector(Context context, OnGestureListener listener) {
         final ViewConfiguration configuration = ViewConfiguration
@@ -48,9 +75,12 @@ class CustomGestureDetector {
         mListener = listener;
         ScaleGestureDetector.OnScaleGestureListener mScaleListener = new ScaleGestureDetector.OnScaleGestureListener() {
             private float lastFocusX, lastFocusY = 0;
+            // The last reported span, and the last actual values in low-latency mode
+            private float lastSpan, actualSpan, actualFocusX, actualFocusY;
 
             @Override
             public boolean onScale(ScaleGestureDetector detector) {
+                if (mLowLatency) return onPredictedScale(detector);
                 float scaleFactor = detector.getScaleFactor();
 
                 if (Float.isNaN(scaleFactor) || Float.isInfinite(scaleFactor))
@@ -69,37 +99,85 @@ class CustomGestureDetector {
                 return true;
             }
 
+            /**
+             * Reports the focus and span extrapolated to the display time instead of the latest ones.
+             */
+            private boolean onPredictedScale(ScaleGestureDetector detector) {
+                final MotionEvent ev = mCurrentEvent;
+                if ((ev != null) && ((ev.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_MOVE)) {
+                    addHistoricalScaleSamples(ev);
+                }
+                actualSpan = detector.getCurrentSpan();
+                actualFocusX = detector.getFocusX();
+                actualFocusY = detector.getFocusY();
+                final long time = detector.getEventTime();
+                mFocusPredictor.add(time, actualFocusX, actualFocusY);
+                mSpanPredictor.add(time, actualSpan, 0f);
+                final long target = SystemClock.uptimeMillis() + PREDICTION_TIME;
+                mFocusPredictor.predict(target);
+                mSpanPredictor.predict(target);
+                // Never predict a collapsed or inverted pinch
+                final float span = Math.max(mSpanPredictor.getPredictedX(), actualSpan / 2f);
+                return reportScale(span, mFocusPredictor.getPredictedX(), mFocusPredictor.getPredictedY());
+            }
+
+            private boolean reportScale(float span, float focusX, float focusY) {
+                if ((lastSpan <= 0f) || (span <= 0f)) return false;
+                float scaleFactor = span / lastSpan;
+                if (Float.isNaN(scaleFactor) || Float.isInfinite(scaleFactor))
+                    return false;
+                mListener.onScale(scaleFactor, focusX, focusY, focusX - lastFocusX, focusY - lastFocusY);
+                lastSpan = span;
+                lastFocusX = focusX;
+                lastFocusY = focusY;
+                return true;
+            }
+
+            /**
+             * Feeds the predictors with the samples batched in the event, computing the focus and span
+             * like {@link ScaleGestureDetector} does.
+             */
+            private void addHistoricalScaleSamples(MotionEvent ev) {
+                final int count = ev.getPointerCount(), history = ev.getHistorySize();
+                if (count < 2) return;
+                for (int h = 0; h < history; h++) {
+                    float sumX = 0f, sumY = 0f;
+                    for (int i = 0; i < count; i++) {
+                        sumX += ev.getHistoricalX(i, h);
+                        sumY += ev.getHistoricalY(i, h);
+                    }
+                    final float focusX = sumX / count, focusY = sumY / count;
+                    float devX = 0f, devY = 0f;
+                    for (int i = 0; i < count; i++) {
+                        devX += Math.abs(ev.getHistoricalX(i, h) - focusX);
+                        devY += Math.abs(ev.getHistoricalY(i, h) - focusY);
+                    }
+                    final long time = ev.getHistoricalEventTime(h);
+                    mFocusPredictor.add(time, focusX, focusY);
+                    mSpanPredictor.add(time, (float) Math.hypot(2f * devX / count, 2f * devY / count), 0f);
+                }
+            }
+
             @Override
             public boolean onScaleBegin(ScaleGestureDetector detector) {
-                lastFocusX = detector.getFocusX();
-                lastFocusY = detector.getFocusY();
+                lastFocusX = actualFocusX = detector.getFocusX();
+                lastFocusY = actualFocusY = detector.getFocusY();
+                lastSpan = actualSpan = detector.getCurrentSpan();
+                final long time = detector.getEventTime();
+                mFocusPredictor.reset(time, lastFocusX, lastFocusY);
+                mSpanPredictor.reset(time, lastSpan, 0f);
                 return true;
             }
 
             @Override
             public void onScaleEnd(ScaleGestureDetector detector) {
-                // NO-OP
+                // Undo the overshoot of the last prediction
+                if (mLowLatency) reportScale(actualSpan, actualFocusX, actualFocusY);
             }
         };
         mDetector = new ScaleGestureDetector(context, mScaleListener);
     }
 
-    private float getActiveX(MotionEvent ev) {
-        try {
-            return ev.getX(mActivePointerIndex);
-        } catch (Exception e) {
-            return ev.getX();
-        }
-    }
-
-    private float getActiveY(MotionEvent ev) {
-        try {
-            return ev.getY(mActivePointerIndex);
-        } catch (Exception e) {
-            return ev.getY();
-        }
-    }
-
     public boolean isScaling() {
         return mDetector.isInProgress();
     }
@@ -108,35 +186,146 @@ class CustomGestureDetector {
         return mIsDragging;
     }
 
+    boolean isLowLatency() {
+        return mLowLatency;
+    }
+
+    /**
+     * In low-latency mode, drags and pinches are reported at the position extrapolated to the time
+     * they will be displayed, using all the samples batched in each event.
+     */
+    void setLowLatency(boolean lowLatency) {
+        mLowLatency = lowLatency;
+    }
+
+    /**
+     * @return the mean distance between the predicted positions and the actual ones, in pixels
+     */
+    float getMeanPredictionError() {
+        final int count = mDragPredictor.getErrorCount() + mFocusPredictor.getErrorCount();
+        return (count == 0) ? 0f :
+                (float) ((mDragPredictor.getErrorSum() + mFocusPredictor.getErrorSum()) / count);
+    }
+
+    /**
+     * @return the largest distance between a predicted position and the actual one, in pixels
+     */
+    float getMaxPredictionError() {
+        return Math.max(mDragPredictor.getErrorMax(), mFocusPredictor.getErrorMax());
+    }
+
+    void resetPredictionError() {
+        mDragPredictor.resetErrors();
+        mFocusPredictor.resetErrors();
+    }
+
+    /**
+     * @return the mean time spent processing a touch event, listeners included, in nanoseconds
+     */
+    long getAverageEventNanos() {
+        return (mEventCount == 0) ? 0 : (mEventNanos / mEventCount);
+    }
+
+    /**
+     * @return the longest time spent processing a touch event, listeners included, in nanoseconds
+     */
+    long getMaxEventNanos() {
+        return mMaxEventNanos;
+    }
+
+    void resetEventStats() {
+        mEventCount = mEventNanos = mMaxEventNanos = 0;
+    }
+
     public boolean onTouchEvent(MotionEvent ev) {
-        try {
-            mDetector.onTouchEvent(ev);
-            return processTouchEvent(ev);
-        } catch (IllegalArgumentException e) {
-            // Fix for support lib bug, happening when onDestroy is called
-            return true;
+        final long start = System.nanoTime();
+        mCurrentEvent = ev;
+        mDetector.onTouchEvent(ev);
+        processTouchEvent(ev);
+        mCurrentEvent = null;
+        final long elapsed = System.nanoTime() - start;
+        mEventCount++;
+        mEventNanos += elapsed;
+        if (elapsed > mMaxEventNanos) mMaxEventNanos = elapsed;
+        return true;
+    }
+
+    /**
+     * Updates the positions of the pointers in the event.
+     *
+     * @param liftedIndex the index of the pointer going up, which is removed, or -1
+     */
+    private void updatePointers(MotionEvent ev, int liftedIndex) {
+        int mask = 0;
+        for (int i = 0, count = ev.getPointerCount(); i < count; i++) {
+            final int id = ev.getPointerId(i);
+            if ((id < 0) || (id >= MAX_POINTER_ID)) continue;
+            mPointerX[id] = ev.getX(i);
+            mPointerY[id] = ev.getY(i);
+            if (i != liftedIndex) mask |= 1 << id;
         }
+        mPointerMask = mask;
     }
 
-    private boolean processTouchEvent(MotionEvent ev) {
-        final int action = ev.getAction();
-        switch (action & MotionEvent.ACTION_MASK) {
-            case MotionEvent.ACTION_DOWN:
-                mActivePointerId = ev.getPointerId(0);
+    /**
+     * Makes the lowest pointer ID still down the active pointer, if the current one went up.
+     */
+    private void checkActivePointer(MotionEvent ev) {
+        if ((mActivePointerId != INVALID_POINTER_ID) && ((mPointerMask & (1 << mActivePointerId)) != 0))
+            return;
+        if (mPointerMask == 0) {
+            mActivePointerId = INVALID_POINTER_ID;
+            return;
+        }
+        final int id = Integer.numberOfTrailingZeros(mPointerMask);
+        if (mActivePointerId != INVALID_POINTER_ID) {
+            mVelocityOffsetX += mPointerX[mActivePointerId] - mPointerX[id];
+            mVelocityOffsetY += mPointerY[mActivePointerId] - mPointerY[id];
+        }
+        mActivePointerId = id;
+        mLastTouchX = mPointerX[id];
+        mLastTouchY = mPointerY[id];
+        mDragPredictor.reset(ev.getEventTime(), mLastTouchX, mLastTouchY);
+    }
 
-                mVelocityTracker = VelocityTracker.obtain();
-                if (null != mVelocityTracker) {
-                    mVelocityTracker.addMovement(ev);
-                }
+    /**
+     * Feeds the samples of the active pointer batched in the event, but not the latest one, to the velocity
+     * estimator while dragging, and to the predictor in low-latency mode.
+     */
+    private void addHistoricalSamples(MotionEvent ev) {
+        if (!mIsDragging && !mLowLatency) return;
+        final int pointerIndex = ev.findPointerIndex(mActivePointerId);
+        if (pointerIndex < 0) return;
+        for (int h = 0, history = ev.getHistorySize(); h < history; h++) {
+            final long time = ev.getHistoricalEventTime(h);
+            final float x = ev.getHistoricalX(pointerIndex, h), y = ev.getHistoricalY(pointerIndex, h);
+            if (mIsDragging) mVelocityEstimator.add(time, x + mVelocityOffsetX, y + mVelocityOffsetY);
+            if (mLowLatency) mDragPredictor.add(time, x, y);
+        }
+    }
 
-                mLastTouchX = getActiveX(ev);
-                mLastTouchY = getActiveY(ev);
+    private void processTouchEvent(MotionEvent ev) {
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                updatePointers(ev, -1);
+                mActivePointerId = INVALID_POINTER_ID;
+                mVelocityOffsetX = mVelocityOffsetY = 0f;
+                checkActivePointer(ev);
+                if (mActivePointerId == INVALID_POINTER_ID) break;
+                mVelocityEstimator.clear();
+                mVelocityEstimator.add(ev.getEventTime(), mLastTouchX, mLastTouchY);
                 mIsDragging = false;
                 break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                updatePointers(ev, -1);
+                break;
             case MotionEvent.ACTION_MOVE:
-                final float x = getActiveX(ev);
-                final float y = getActiveY(ev);
-                final float dx = x - mLastTouchX, dy = y - mLastTouchY;
+                updatePointers(ev, -1);
+                checkActivePointer(ev);
+                if (mActivePointerId == INVALID_POINTER_ID) break;
+                final float x = mPointerX[mActivePointerId];
+                final float y = mPointerY[mActivePointerId];
+                float dx = x - mLastTouchX, dy = y - mLastTouchY;
 
                 if (!mIsDragging) {
                     // Use Pythagoras to see if drag length is larger than
@@ -144,71 +333,59 @@ class CustomGestureDetector {
                     mIsDragging = Math.sqrt((dx * dx) + (dy * dy)) >= mTouchSlop;
                 }
 
+                // All the samples go to the velocity, but only one drag is reported per event
+                addHistoricalSamples(ev);
+                if (mLowLatency) mDragPredictor.add(ev.getEventTime(), x, y);
                 if (mIsDragging) {
-                    mListener.onDrag(dx, dy);
-                    mLastTouchX = x;
-                    mLastTouchY = y;
-
-                    if (null != mVelocityTracker) {
-                        mVelocityTracker.addMovement(ev);
+                    mVelocityEstimator.add(ev.getEventTime(), x + mVelocityOffsetX, y + mVelocityOffsetY);
+                    if (mLowLatency) {
+                        mDragPredictor.predict(SystemClock.uptimeMillis() + PREDICTION_TIME);
+                        dx = mDragPredictor.getPredictedX() - mLastTouchX;
+                        dy = mDragPredictor.getPredictedY() - mLastTouchY;
                     }
+                    mListener.onDrag(dx, dy);
+                    mLastTouchX += dx;
+                    mLastTouchY += dy;
                 }
                 break;
             case MotionEvent.ACTION_CANCEL:
+                mPointerMask = 0;
                 mActivePointerId = INVALID_POINTER_ID;
-                // Recycle Velocity Tracker
-                if (null != mVelocityTracker) {
-                    mVelocityTracker.recycle();
-                    mVelocityTracker = null;
-                }
+                mIsDragging = false;
                 break;
             case MotionEvent.ACTION_UP:
-                mActivePointerId = INVALID_POINTER_ID;
-                if (mIsDragging) {
-                    if (null != mVelocityTracker) {
-                        mLastTouchX = getActiveX(ev);
-                        mLastTouchY = getActiveY(ev);
-
-                        // Compute velocity within the last 1000ms
-                        mVelocityTracker.addMovement(ev);
-                        mVelocityTracker.computeCurrentVelocity(1000);
-
-                        final float vX = mVelocityTracker.getXVelocity(), vY = mVelocityTracker
-                                .getYVelocity();
-
-                        // If the velocity is greater than minVelocity, call
-                        // listener
-                        if (Math.max(Math.abs(vX), Math.abs(vY)) >= mMinimumVelocity) {
-                            mListener.onFling(mLastTouchX, mLastTouchY, -vX,
-                                    -vY);
-                        }
+                updatePointers(ev, -1);
+                if (mIsDragging && (mActivePointerId != INVALID_POINTER_ID) &&
+                        ((mPointerMask & (1 << mActivePointerId)) != 0)) {
+                    final float upX = mPointerX[mActivePointerId], upY = mPointerY[mActivePointerId];
+                    if (mLowLatency) {
+                        // Undo the overshoot of the last prediction
+                        mListener.onDrag(upX - mLastTouchX, upY - mLastTouchY);
                     }
-                }
+                    mLastTouchX = upX;
+                    mLastTouchY = upY;
+
+                    // Compute velocity within the last samples
+                    addHistoricalSamples(ev);
+                    mVelocityEstimator.add(ev.getEventTime(), upX + mVelocityOffsetX, upY + mVelocityOffsetY);
+                    mVelocityEstimator.computeVelocity(1000);
+                    final float vX = mVelocityEstimator.getVelocityX(), vY = mVelocityEstimator.getVelocityY();
 
-                // Recycle Velocity Tracker
-                if (null != mVelocityTracker) {
-                    mVelocityTracker.recycle();
-                    mVelocityTracker = null;
+                    // If the velocity is greater than minVelocity, call
+                    // listener
+                    if (Math.max(Math.abs(vX), Math.abs(vY)) >= mMinimumVelocity) {
+                        mListener.onFling(mLastTouchX, mLastTouchY, -vX,
+                                -vY);
+                    }
                 }
+                mPointerMask = 0;
+                mActivePointerId = INVALID_POINTER_ID;
                 break;
             case MotionEvent.ACTION_POINTER_UP:
-                final int pointerIndex =
-                        (ev.getAction() & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
-                final int pointerId = ev.getPointerId(pointerIndex);
-                if (pointerId == mActivePointerId) {
-                    // This was our active pointer going up. Choose a new
-                    // active pointer and adjust accordingly.
-                    final int newPointerIndex = pointerIndex == 0 ? 1 : 0;
-                    mActivePointerId = ev.getPointerId(newPointerIndex);
-                    mLastTouchX = ev.getX(newPointerIndex);
-                    mLastTouchY = ev.getY(newPointerIndex);
-                }
+                // If this was our active pointer going up, another one takes over
+                updatePointers(ev, ev.getActionIndex());
+                checkActivePointer(ev);
                 break;
         }
-
-        mActivePointerIndex = ev
-                .findPointerIndex(mActivePointerId != INVALID_POINTER_ID ? mActivePointerId
-                        : 0);
-        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import java.util.ArrayList;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded thread pool shared by all the {@link PhotoView} instances of the process. Jobs are run in order of
+ * the decode priority of the view that submitted them, so that the image on screen is decoded before its
+ * neighbours no matter how many views are alive, and in submission order within the same priority.
+ */
+final class DecodeScheduler {
+
+    private static final int MAX_THREADS = 4;
+    private static DecodeScheduler instance;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private DecodeScheduler() {
+        final int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PhotoView decoder");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    static synchronized DecodeScheduler getInstance() {
+        if (instance == null) instance = new DecodeScheduler();
+        return instance;
+    }
+
+    /**
+     * Queues a job with the current decode priority of its owner.
+     */
+    Job submit(PhotoView owner, Runnable task) {
+        Job job = new Job(owner, task, owner.getDecodePriority(), sequence.getAndIncrement());
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * Moves the queued jobs of a view to a new priority. Jobs already running are not affected.
+     */
+    void setPriority(PhotoView owner, int priority) {
+        ArrayList<Job> moved = new ArrayList<>();
+        for (Runnable r : executor.getQueue()) {
+            Job job = (Job) r;
+            if ((job.owner == owner) && (job.priority != priority) && executor.remove(job)) moved.add(job);
+        }
+        for (Job job : moved) {
+            job.priority = priority;
+            executor.execute(job);
+        }
+    }
+
+    /**
+     * Cancels all the queued jobs of a view.
+     */
+    void cancel(PhotoView owner) {
+        for (Runnable r : executor.getQueue()) {
+            Job job = (Job) r;
+            if (job.owner == owner) job.cancel(false);
+        }
+    }
+
+    final class Job extends FutureTask<Void> implements Comparable<Job> {
+
+        final PhotoView owner;
+        final long sequence;
+        volatile int priority;
+
+        Job(PhotoView owner, Runnable task, int priority, long sequence) {
+            super(task, null);
+            this.owner = owner;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // Don't let cancelled jobs wait in the queue
+            executor.remove(this);
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) return (priority < other.priority) ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Chooses how the bitmap of a {@link PhotoView} is sampled before each draw. While a gesture or animation
+ * moves the image, filtering can be turned off until the image settles, as reported by
+ * {@link PhotoView#setOnSettledListener(OnSettledListener)}. With automatic sampling, the filtering and
+ * mipmaps follow the number of screen pixels per bitmap pixel: nearest-neighbour when zoomed in past
+ * a threshold, bilinear around 1:1, and mipmapped when zoomed out below another one. Mipmaps are only
+ * enabled on the bitmaps decoded by the view, since the other ones may be drawn elsewhere too.
+ * The original state of the paint and bitmap is restored when they are not overridden anymore, and
+ * BitmapDrawables are mutated before their paint is changed.
+ */
+class DrawingQuality {
+
+    static final float DEFAULT_NEAREST_THRESHOLD = 2f;
+    static final float DEFAULT_MIPMAP_THRESHOLD = 0.5f;
+
+    private final PhotoView photoView;
+    // These are set so we don't keep allocating them on the heap
+    private final float[] matrixValues = new float[9];
+    private final Matrix lastDrawnMatrix = new Matrix();
+    private boolean interactionDowngrade = false;
+    private boolean drawingFast = false;
+    private boolean automaticSampling = false;
+    private float nearestThreshold = DEFAULT_NEAREST_THRESHOLD;
+    private float mipmapThreshold = DEFAULT_MIPMAP_THRESHOLD;
+    // The paint and bitmap currently overridden, with their original state
+    private Paint paint;
+    private boolean paintFilter;
+    private Bitmap mipmapBitmap;
+    private boolean bitmapMipMap;
+
+    DrawingQuality(PhotoView photoView) {
+        this.photoView = photoView;
+    }
+
+    /**
+     * BitmapDrawables are mutated first, so that the paint isn't shared with the other Drawables
+     * made from the same resource.
+     */
+    private static Paint paintOf(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) return ((BitmapDrawable) drawable.mutate()).getPaint();
+        if (drawable instanceof SizedBitmapDrawable) return ((SizedBitmapDrawable) drawable).getPaint();
+        return null;
+    }
+
+    private static Bitmap bitmapOf(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) return ((BitmapDrawable) drawable).getBitmap();
+        if (drawable instanceof SizedBitmapDrawable) return ((SizedBitmapDrawable) drawable).getBitmap();
+        return null;
+    }
+
+    /**
+     * @return the bitmap of the Drawable if it was decoded by the view, whose mipmap flag can be changed
+     * without affecting anyone else
+     */
+    private static Bitmap ownBitmapOf(Drawable drawable) {
+        return (drawable instanceof SizedBitmapDrawable) ? ((SizedBitmapDrawable) drawable).getBitmap() : null;
+    }
+
+    boolean isInteractionDowngrade() {
+        return interactionDowngrade;
+    }
+
+    void setInteractionDowngrade(boolean enabled) {
+        interactionDowngrade = enabled;
+        if (!enabled) onSettled();
+    }
+
+    /**
+     * Restores the full quality, called when the image settles.
+     */
+    void onSettled() {
+        if (drawingFast) {
+            drawingFast = false;
+            photoView.invalidate();
+        }
+    }
+
+    boolean isDrawingFast() {
+        return drawingFast;
+    }
+
+    boolean isAutomaticSampling() {
+        return automaticSampling;
+    }
+
+    void setAutomaticSampling(boolean enabled) {
+        automaticSampling = enabled;
+        photoView.invalidate();
+    }
+
+    float getNearestThreshold() {
+        return nearestThreshold;
+    }
+
+    float getMipmapThreshold() {
+        return mipmapThreshold;
+    }
+
+    void setThresholds(float nearestAbove, float mipmapBelow) {
+        if ((mipmapBelow <= 0f) || (mipmapBelow > 1f) || (nearestAbove < 1f))
+            throw new IllegalArgumentException("Thresholds must satisfy 0 < mipmapBelow <= 1 <= nearestAbove");
+        nearestThreshold = nearestAbove;
+        mipmapThreshold = mipmapBelow;
+        photoView.invalidate();
+    }
+
+    /**
+     * Updates the paint and bitmap of the Drawable, called before each draw.
+     *
+     * @param drawMatrix  the matrix that maps the Drawable to the View content area
+     * @param interacting whether a gesture or animation is running
+     */
+    void beforeDraw(Drawable drawable, Matrix drawMatrix, boolean interacting) {
+        if (!drawMatrix.equals(lastDrawnMatrix)) {
+            lastDrawnMatrix.set(drawMatrix);
+            // Restored by onSettled()
+            if (interactionDowngrade && interacting) drawingFast = true;
+        }
+        final Paint target = paintOf(drawable);
+        final Bitmap bitmap = bitmapOf(drawable), ownBitmap = ownBitmapOf(drawable);
+        if (target != paint) restorePaint();
+        if (ownBitmap != mipmapBitmap) restoreMipMap();
+        if ((target == null) || (!drawingFast && !automaticSampling)) {
+            restorePaint();
+            restoreMipMap();
+            return;
+        }
+        if (paint == null) {
+            paint = target;
+            paintFilter = target.isFilterBitmap();
+        }
+        drawMatrix.getValues(matrixValues);
+        float scale = (float) Math.hypot(matrixValues[Matrix.MSCALE_X], matrixValues[Matrix.MSKEW_Y]);
+        // Screen pixels per bitmap pixel: region sources show a subsampled preview, and BitmapDrawables
+        // may be scaled for the screen density
+        if ((bitmap != null) && (bitmap.getWidth() > 0))
+            scale *= (float) drawable.getIntrinsicWidth() / bitmap.getWidth();
+        final boolean filter = !drawingFast && (automaticSampling ? (scale < nearestThreshold) : paintFilter);
+        if (paint.isFilterBitmap() != filter) paint.setFilterBitmap(filter);
+        if (!automaticSampling || (ownBitmap == null)) {
+            restoreMipMap();
+        } else if ((mipmapBitmap == null) && (scale < mipmapThreshold)) {
+            // Mipmaps are kept once generated, magnification doesn't use them
+            mipmapBitmap = ownBitmap;
+            bitmapMipMap = ownBitmap.hasMipMap();
+            ownBitmap.setHasMipMap(true);
+        }
+    }
+
+    private void restorePaint() {
+        if (paint != null) {
+            paint.setFilterBitmap(paintFilter);
+            paint = null;
+        }
+    }
+
+    private void restoreMipMap() {
+        if (mipmapBitmap != null) {
+            mipmapBitmap.setHasMipMap(bitmapMipMap);
+            mipmapBitmap = null;
+        }
+    }
+}
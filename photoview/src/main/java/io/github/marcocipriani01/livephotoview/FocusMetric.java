@@ -0,0 +1,91 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * A single focus measurement computed by {@link FocusMetricEngine} over the visible part of a frame.
+ * All the coordinates and lengths are expressed in frame pixels.
+ */
+@SuppressWarnings("unused")
+public final class FocusMetric {
+
+    private final long timestamp;
+    private final float hfr;
+    private final float fwhm;
+    private final float[] starX;
+    private final float[] starY;
+    private final long analysisNanos;
+
+    FocusMetric(long timestamp, float hfr, float fwhm, float[] starX, float[] starY, long analysisNanos) {
+        this.timestamp = timestamp;
+        this.hfr = hfr;
+        this.fwhm = fwhm;
+        this.starX = starX;
+        this.starY = starY;
+        this.analysisNanos = analysisNanos;
+    }
+
+    /**
+     * @return the time at which the frame was submitted, in {@link android.os.SystemClock#uptimeMillis()} base
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the median Half Flux Radius of the detected stars, or {@link Float#NaN} if no star was found
+     */
+    public float getHfr() {
+        return hfr;
+    }
+
+    /**
+     * @return the median Full Width at Half Maximum of the detected stars, or {@link Float#NaN} if no star was found
+     */
+    public float getFwhm() {
+        return fwhm;
+    }
+
+    /**
+     * @return the number of stars used for this measurement
+     */
+    public int getStarCount() {
+        return starX.length;
+    }
+
+    /**
+     * @param index star index, from 0 to {@link #getStarCount()} - 1
+     * @return the X coordinate of the star centroid
+     */
+    public float getStarX(int index) {
+        return starX[index];
+    }
+
+    /**
+     * @param index star index, from 0 to {@link #getStarCount()} - 1
+     * @return the Y coordinate of the star centroid
+     */
+    public float getStarY(int index) {
+        return starY[index];
+    }
+
+    /**
+     * @return the time spent between the frame submission and the end of the analysis
+     */
+    public long getAnalysisNanos() {
+        return analysisNanos;
+    }
+}
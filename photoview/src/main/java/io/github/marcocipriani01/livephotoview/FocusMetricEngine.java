@@ -0,0 +1,406 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the focus quality (HFR and FWHM) of the stars visible in a {@link PhotoView}.
+ * Only the part of each frame currently on screen is scanned, so zooming onto a star makes the analysis cheaper.
+ * Frames submitted while the previous one is still being analyzed are dropped, so that the published
+ * measurements never lag behind the live feed.
+ */
+@SuppressWarnings("unused")
+public class FocusMetricEngine {
+
+    private static final int DEFAULT_HISTORY_SIZE = 120;
+    private static final int DEFAULT_MAX_STARS = 64;
+    private static final int DEFAULT_MAX_SCAN_PIXELS = 4 * 1024 * 1024;
+    private static final int DEFAULT_STAR_RADIUS = 12;
+    private static final float DEFAULT_DETECTION_SIGMA = 5.0f;
+    private static final int MAX_CANDIDATES = 4096;
+    private static final int SATURATION = 255;
+    // FWHM = 2 * sqrt(2 * ln(2)) * sigma for a Gaussian profile
+    private static final float SIGMA_TO_FWHM = 2.3548f;
+    private static final float MAD_TO_SIGMA = 1.4826f;
+
+    private final PhotoView photoView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService measureExecutor;
+    private final int measureThreads;
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    private final ArrayDeque<FocusMetric> history = new ArrayDeque<>();
+    private final RectF visibleRect = new RectF();
+    // These are reused across frames, and only touched by the analysis thread while busy is set
+    private final int[] histogram = new int[SATURATION + 1];
+    private final int[] deviationHistogram = new int[SATURATION + 1];
+    private final int[] candidates = new int[MAX_CANDIDATES * 3];
+    private int[] pixels = new int[0];
+    private int[] luma = new int[0];
+    private OnFocusMetricListener listener;
+    private int historySize = DEFAULT_HISTORY_SIZE;
+    private int maxStars = DEFAULT_MAX_STARS;
+    private int maxScanPixels = DEFAULT_MAX_SCAN_PIXELS;
+    private int starRadius = DEFAULT_STAR_RADIUS;
+    private float detectionSigma = DEFAULT_DETECTION_SIGMA;
+    private volatile boolean released = false;
+
+    public FocusMetricEngine(PhotoView photoView) {
+        this.photoView = photoView;
+        measureThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        measureExecutor = Executors.newFixedThreadPool(measureThreads);
+    }
+
+    private static float median(float[] values, int count) {
+        if (count == 0) return Float.NaN;
+        Arrays.sort(values, 0, count);
+        return ((count % 2) == 1) ? values[count / 2] : (values[count / 2 - 1] + values[count / 2]) / 2f;
+    }
+
+    private static int histogramMedian(int[] histogram, int total) {
+        int half = (total + 1) / 2, sum = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            sum += histogram[i];
+            if (sum >= half) return i;
+        }
+        return histogram.length - 1;
+    }
+
+    public void setOnFocusMetricListener(OnFocusMetricListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets how many measurements are kept in the rolling time series.
+     */
+    public void setHistorySize(int historySize) {
+        if (historySize < 1) throw new IllegalArgumentException("History size must be at least 1");
+        this.historySize = historySize;
+    }
+
+    /**
+     * Sets the maximum number of stars measured in each frame. The brightest unsaturated ones are used.
+     */
+    public void setMaxStars(int maxStars) {
+        if (maxStars < 1) throw new IllegalArgumentException("Max stars must be at least 1");
+        this.maxStars = Math.min(maxStars, MAX_CANDIDATES);
+    }
+
+    /**
+     * Limits the number of pixels scanned per frame. When the visible region is larger (i.e. when zoomed out),
+     * only its central part is analyzed.
+     */
+    public void setMaxScanPixels(int maxScanPixels) {
+        if (maxScanPixels < 1) throw new IllegalArgumentException("Max scan pixels must be positive");
+        this.maxScanPixels = maxScanPixels;
+    }
+
+    /**
+     * Sets the radius, in frame pixels, of the window used to measure each star.
+     */
+    public void setStarRadius(int starRadius) {
+        if (starRadius < 2) throw new IllegalArgumentException("Star radius must be at least 2");
+        this.starRadius = starRadius;
+    }
+
+    /**
+     * Sets the detection threshold, in units of background noise above the background level.
+     */
+    public void setDetectionSigma(float detectionSigma) {
+        this.detectionSigma = detectionSigma;
+    }
+
+    /**
+     * Clears the rolling time series.
+     */
+    public void clearHistory() {
+        history.clear();
+    }
+
+    /**
+     * Submits a new frame for analysis. Must be called on the main thread, with the frame being displayed
+     * (or about to be displayed) by the {@link PhotoView}. The visible region is copied immediately,
+     * so the frame can be recycled or reused as soon as this method returns.
+     *
+     * @param frame the new frame
+     * @return {@code false} if the frame was dropped because the previous one is still being analyzed
+     * or nothing is visible
+     */
+    public boolean submitFrame(Bitmap frame) {
+        if (released || (frame == null) || !busy.compareAndSet(false, true)) return false;
+        final long start = SystemClock.elapsedRealtimeNanos();
+        Drawable drawable = photoView.getDrawable();
+        if ((drawable == null) || (drawable.getIntrinsicWidth() <= 0) || (drawable.getIntrinsicHeight() <= 0) ||
+                !photoView.getVisibleImageRect(visibleRect)) {
+            busy.set(false);
+            return false;
+        }
+        // The Drawable may be density-scaled, map its coordinates to frame pixels
+        final int frameWidth = frame.getWidth(), frameHeight = frame.getHeight();
+        float sx = (float) frameWidth / drawable.getIntrinsicWidth(),
+                sy = (float) frameHeight / drawable.getIntrinsicHeight();
+        int left = Math.max(0, (int) Math.floor(visibleRect.left * sx)),
+                top = Math.max(0, (int) Math.floor(visibleRect.top * sy)),
+                right = Math.min(frameWidth, (int) Math.ceil(visibleRect.right * sx)),
+                bottom = Math.min(frameHeight, (int) Math.ceil(visibleRect.bottom * sy));
+        int width = right - left, height = bottom - top;
+        if ((long) width * height > maxScanPixels) {
+            double shrink = Math.sqrt((double) maxScanPixels / ((long) width * height));
+            int newWidth = Math.max(1, (int) (width * shrink)), newHeight = Math.max(1, (int) (height * shrink));
+            left += (width - newWidth) / 2;
+            top += (height - newHeight) / 2;
+            width = newWidth;
+            height = newHeight;
+        }
+        if ((width <= 2 * starRadius) || (height <= 2 * starRadius)) {
+            busy.set(false);
+            return false;
+        }
+        final int area = width * height;
+        if (pixels.length < area) {
+            pixels = new int[area];
+            luma = new int[area];
+        }
+        frame.getPixels(pixels, 0, width, left, top, width, height);
+        final long timestamp = SystemClock.uptimeMillis();
+        final int regionLeft = left, regionTop = top, regionWidth = width, regionHeight = height;
+        analysisExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final FocusMetric metric = analyze(regionLeft, regionTop, regionWidth, regionHeight, timestamp, start);
+                    if (metric != null) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                publish(metric);
+                            }
+                        });
+                    }
+                } finally {
+                    busy.set(false);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stops the worker threads. The engine cannot be used anymore after this call.
+     */
+    public void release() {
+        released = true;
+        listener = null;
+        analysisExecutor.shutdownNow();
+        measureExecutor.shutdownNow();
+    }
+
+    private void publish(FocusMetric metric) {
+        if (released) return;
+        history.addLast(metric);
+        while (history.size() > historySize) {
+            history.removeFirst();
+        }
+        if (listener != null) {
+            listener.onFocusMetric(metric, Collections.unmodifiableList(new ArrayList<>(history)));
+        }
+    }
+
+    private FocusMetric analyze(int left, int top, final int width, int height, long timestamp, long start) {
+        final int area = width * height;
+        Arrays.fill(histogram, 0);
+        for (int i = 0; i < area; i++) {
+            int color = pixels[i];
+            int value = ((((color >> 16) & 0xff) * 77) + (((color >> 8) & 0xff) * 150) + ((color & 0xff) * 29)) >> 8;
+            luma[i] = value;
+            histogram[value]++;
+        }
+        // Robust background and noise estimation: median and median absolute deviation
+        final int background = histogramMedian(histogram, area);
+        Arrays.fill(deviationHistogram, 0);
+        for (int i = 0; i <= SATURATION; i++) {
+            deviationHistogram[Math.abs(i - background)] += histogram[i];
+        }
+        float noise = Math.max(1f, MAD_TO_SIGMA * histogramMedian(deviationHistogram, area));
+        int threshold = (int) Math.min(SATURATION - 1, background + detectionSigma * noise);
+
+        // Find the local maxima above the detection threshold
+        final int radius = starRadius;
+        int count = 0;
+        for (int y = radius; y < height - radius; y++) {
+            int row = y * width;
+            for (int x = radius; x < width - radius; x++) {
+                int i = row + x, value = luma[i];
+                if ((value <= threshold) || (value >= SATURATION)) continue;
+                if ((value < luma[i - 1]) || (value <= luma[i + 1]) ||
+                        (value < luma[i - width - 1]) || (value < luma[i - width]) || (value < luma[i - width + 1]) ||
+                        (value <= luma[i + width - 1]) || (value <= luma[i + width]) || (value <= luma[i + width + 1]))
+                    continue;
+                if (isNearSaturated(i, width)) continue;
+                if (count < MAX_CANDIDATES) {
+                    candidates[count * 3] = x;
+                    candidates[count * 3 + 1] = y;
+                    candidates[count * 3 + 2] = value;
+                    count++;
+                }
+            }
+        }
+
+        // Keep the brightest isolated candidates
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return candidates[b * 3 + 2] - candidates[a * 3 + 2];
+            }
+        });
+        final int[] starsX = new int[Math.min(count, maxStars)], starsY = new int[starsX.length];
+        int stars = 0;
+        final int minDistance2 = 4 * radius * radius;
+        for (int k = 0; (k < count) && (stars < starsX.length); k++) {
+            int x = candidates[order[k] * 3], y = candidates[order[k] * 3 + 1];
+            boolean isolated = true;
+            for (int s = 0; s < stars; s++) {
+                int dx = starsX[s] - x, dy = starsY[s] - y;
+                if ((dx * dx + dy * dy) < minDistance2) {
+                    isolated = false;
+                    break;
+                }
+            }
+            if (isolated) {
+                starsX[stars] = x;
+                starsY[stars] = y;
+                stars++;
+            }
+        }
+
+        // Measure the stars in parallel
+        final float[] hfr = new float[stars], fwhm = new float[stars],
+                centroidX = new float[stars], centroidY = new float[stars];
+        final boolean[] valid = new boolean[stars];
+        final int starCount = stars;
+        int chunks = Math.min(measureThreads, stars);
+        if (chunks > 0) {
+            List<Callable<Void>> tasks = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                final int from = c * starCount / chunks, to = (c + 1) * starCount / chunks;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int s = from; s < to; s++) {
+                            valid[s] = measureStar(starsX[s], starsY[s], width, background,
+                                    s, hfr, fwhm, centroidX, centroidY);
+                        }
+                        return null;
+                    }
+                });
+            }
+            try {
+                measureExecutor.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (RejectedExecutionException e) {
+                return null;
+            }
+        }
+
+        int measured = 0;
+        for (int s = 0; s < starCount; s++) {
+            if (valid[s]) {
+                hfr[measured] = hfr[s];
+                fwhm[measured] = fwhm[s];
+                centroidX[measured] = centroidX[s] + left;
+                centroidY[measured] = centroidY[s] + top;
+                measured++;
+            }
+        }
+        float[] outX = Arrays.copyOf(centroidX, measured), outY = Arrays.copyOf(centroidY, measured);
+        return new FocusMetric(timestamp, median(hfr, measured), median(fwhm, measured), outX, outY,
+                SystemClock.elapsedRealtimeNanos() - start);
+    }
+
+    private boolean isNearSaturated(int index, int width) {
+        return (luma[index - 1] >= SATURATION) || (luma[index + 1] >= SATURATION) ||
+                (luma[index - width] >= SATURATION) || (luma[index + width] >= SATURATION);
+    }
+
+    /**
+     * Computes the centroid, HFR and FWHM of the star whose peak is at the given region coordinates.
+     * Only reads shared state, so it can run concurrently for different stars.
+     */
+    private boolean measureStar(int peakX, int peakY, int width, int background, int index,
+                                float[] hfr, float[] fwhm, float[] centroidX, float[] centroidY) {
+        final int radius = starRadius, radius2 = radius * radius;
+        double flux = 0, sumX = 0, sumY = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            int row = (peakY + dy) * width;
+            for (int dx = -radius; dx <= radius; dx++) {
+                if ((dx * dx + dy * dy) > radius2) continue;
+                int value = luma[row + peakX + dx] - background;
+                if (value > 0) {
+                    flux += value;
+                    sumX += value * dx;
+                    sumY += value * dy;
+                }
+            }
+        }
+        if (flux <= 0) return false;
+        double cx = peakX + (sumX / flux), cy = peakY + (sumY / flux);
+        double weightedDistance = 0, weightedDistance2 = 0;
+        flux = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            int row = (peakY + dy) * width;
+            for (int dx = -radius; dx <= radius; dx++) {
+                if ((dx * dx + dy * dy) > radius2) continue;
+                int value = luma[row + peakX + dx] - background;
+                if (value > 0) {
+                    double rx = peakX + dx - cx, ry = peakY + dy - cy, d2 = rx * rx + ry * ry;
+                    flux += value;
+                    weightedDistance += value * Math.sqrt(d2);
+                    weightedDistance2 += value * d2;
+                }
+            }
+        }
+        hfr[index] = (float) (weightedDistance / flux);
+        // Second moment of a 2D Gaussian: <r^2> = 2 * sigma^2
+        fwhm[index] = (float) (SIGMA_TO_FWHM * Math.sqrt(weightedDistance2 / (2.0 * flux)));
+        centroidX[index] = (float) cx;
+        centroidY[index] = (float) cy;
+        return true;
+    }
+}
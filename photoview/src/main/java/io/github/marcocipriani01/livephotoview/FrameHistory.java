@@ -0,0 +1,410 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A memory-budgeted ring buffer of the last frames displayed by a {@link PhotoView}.
+ * Recorded frames can be scrubbed through or played back at any frame rate without reloading them,
+ * reusing a single display bitmap and keeping the current zoom and pan of the view.
+ * All the methods must be called on the main thread.
+ */
+@SuppressWarnings("unused")
+public class FrameHistory {
+
+    /**
+     * Frames are stored as full-color copies.
+     */
+    public static final int STORAGE_ARGB = 0;
+    /**
+     * Frames are stored as 8-bit grayscale, using a quarter of the memory.
+     */
+    public static final int STORAGE_GRAYSCALE = 1;
+    /**
+     * Frames are stored as 8-bit grayscale, run-length encoded as a difference against the previous frame.
+     */
+    public static final int STORAGE_DELTA = 2;
+    private static final int DEFAULT_KEYFRAME_INTERVAL = 30;
+    private static final int MAX_RUN = 256;
+
+    private final PhotoView photoView;
+    private final long memoryBudget;
+    private final int storageMode;
+    private final ArrayList<Frame> frames = new ArrayList<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Matrix suppMatrix = new Matrix();
+    private long usedBytes = 0;
+    private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+    private int framesSinceKeyframe = 0;
+    // Scratch buffers, reused across frames
+    private int[] rowBuffer = new int[0];
+    private byte[] grayBuffer = new byte[0];
+    private byte[] previousGray = new byte[0];
+    private byte[] encodeBuffer = new byte[0];
+    private int previousWidth = -1, previousHeight = -1;
+    // Playback state
+    private Bitmap displayBitmap;
+    private Frame decodedFrame;
+    private byte[] decodedGray = new byte[0];
+    private int currentIndex = -1;
+    private long frameIntervalMs;
+    private boolean looping;
+    private boolean playing = false;
+    private OnPlaybackFrameListener listener;
+    private final Runnable playbackRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!playing) return;
+            long start = SystemClock.uptimeMillis();
+            int next = currentIndex + 1;
+            if (next >= frames.size()) {
+                if (!looping || frames.isEmpty()) {
+                    playing = false;
+                    return;
+                }
+                next = 0;
+            }
+            showFrame(next);
+            handler.postAtTime(this, start + frameIntervalMs);
+        }
+    };
+
+    /**
+     * @param photoView    the view that displays the live frames and the playback
+     * @param memoryBudget maximum number of bytes used to store the frames. The oldest frames are dropped first
+     * @param storageMode  one of {@link #STORAGE_ARGB}, {@link #STORAGE_GRAYSCALE} or {@link #STORAGE_DELTA}
+     */
+    public FrameHistory(PhotoView photoView, long memoryBudget, int storageMode) {
+        if (memoryBudget <= 0) throw new IllegalArgumentException("Memory budget must be positive");
+        if ((storageMode < STORAGE_ARGB) || (storageMode > STORAGE_DELTA))
+            throw new IllegalArgumentException("Unknown storage mode");
+        this.photoView = photoView;
+        this.memoryBudget = memoryBudget;
+        this.storageMode = storageMode;
+    }
+
+    private static int encodeRuns(byte[] delta, int length, byte[] out) {
+        int o = 0, i = 0;
+        while (i < length) {
+            if (delta[i] != 0) {
+                out[o++] = delta[i++];
+            } else {
+                int run = 1;
+                while ((i + run < length) && (run < MAX_RUN) && (delta[i + run] == 0)) {
+                    run++;
+                }
+                out[o++] = 0;
+                out[o++] = (byte) (run - 1);
+                i += run;
+            }
+        }
+        return o;
+    }
+
+    private static void applyRuns(byte[] encoded, byte[] gray, int length) {
+        int o = 0, i = 0;
+        while (o < length) {
+            byte b = encoded[i++];
+            if (b != 0) {
+                gray[o] += b;
+                o++;
+            } else {
+                // Zero deltas leave the pixels unchanged
+                o += (encoded[i++] & 0xff) + 1;
+            }
+        }
+    }
+
+    public void setOnPlaybackFrameListener(OnPlaybackFrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets every how many frames a full frame is stored in {@link #STORAGE_DELTA} mode.
+     * Lower values make scrubbing faster at the cost of memory.
+     */
+    public void setKeyframeInterval(int keyframeInterval) {
+        if (keyframeInterval < 1) throw new IllegalArgumentException("Keyframe interval must be at least 1");
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * @return the number of recorded frames
+     */
+    public int size() {
+        return frames.size();
+    }
+
+    /**
+     * @return the number of bytes currently used to store the frames
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the index of the frame being displayed by the history, or -1
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * @param index frame index, 0 being the oldest one
+     * @return the time at which the frame was recorded, in {@link SystemClock#uptimeMillis()} base
+     */
+    public long getTimestamp(int index) {
+        return frames.get(index).timestamp;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * Stores a copy of a new live frame. The frame can be reused by the caller as soon as this method returns.
+     * Frames larger than the whole memory budget are ignored.
+     */
+    public void record(Bitmap frame) {
+        final int width = frame.getWidth(), height = frame.getHeight();
+        final Frame entry = new Frame(width, height, SystemClock.uptimeMillis());
+        if (storageMode == STORAGE_ARGB) {
+            long bytes = 4L * width * height;
+            if (bytes > memoryBudget) return;
+            evict(bytes);
+            entry.bitmap = frame.copy(Bitmap.Config.ARGB_8888, false);
+            if (entry.bitmap == null) return;
+            entry.bytes = entry.bitmap.getAllocationByteCount();
+        } else {
+            final int area = width * height;
+            if (area > memoryBudget) return;
+            toGray(frame, width, height);
+            boolean sizeChanged = (width != previousWidth) || (height != previousHeight);
+            int deltaLength = -1;
+            if ((storageMode == STORAGE_DELTA) && !sizeChanged && !frames.isEmpty() &&
+                    (framesSinceKeyframe < keyframeInterval - 1)) {
+                for (int i = 0; i < area; i++) {
+                    previousGray[i] = (byte) (grayBuffer[i] - previousGray[i]);
+                }
+                if (encodeBuffer.length < 2 * area) encodeBuffer = new byte[2 * area];
+                int length = encodeRuns(previousGray, area, encodeBuffer);
+                if (length < area) deltaLength = length;
+            }
+            // Evict first: if the frame the delta refers to goes away, a keyframe is needed instead
+            evict((deltaLength >= 0) ? deltaLength : area);
+            if ((deltaLength >= 0) && !frames.isEmpty()) {
+                entry.data = Arrays.copyOf(encodeBuffer, deltaLength);
+                entry.keyframe = false;
+                framesSinceKeyframe++;
+            } else {
+                entry.data = Arrays.copyOf(grayBuffer, area);
+                entry.keyframe = true;
+                framesSinceKeyframe = 0;
+            }
+            entry.bytes = entry.data.length;
+            // Swap buffers: the current frame becomes the reference for the next delta
+            byte[] tmp = previousGray;
+            previousGray = grayBuffer;
+            grayBuffer = tmp;
+            previousWidth = width;
+            previousHeight = height;
+        }
+        frames.add(entry);
+        usedBytes += entry.bytes;
+    }
+
+    /**
+     * Displays a recorded frame, keeping the current zoom and pan of the view.
+     *
+     * @param index frame index, 0 being the oldest one
+     */
+    public void showFrame(int index) {
+        if ((index < 0) || (index >= frames.size()))
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frames.size());
+        Frame frame = frames.get(index);
+        if ((displayBitmap == null) || (displayBitmap.getWidth() != frame.width) ||
+                (displayBitmap.getHeight() != frame.height)) {
+            displayBitmap = Bitmap.createBitmap(frame.width, frame.height, Bitmap.Config.ARGB_8888);
+        }
+        if (frame.bitmap != null) {
+            new Canvas(displayBitmap).drawBitmap(frame.bitmap, 0, 0, null);
+        } else {
+            byte[] gray = decodeGray(index);
+            if (rowBuffer.length < frame.width) rowBuffer = new int[frame.width];
+            for (int y = 0, i = 0; y < frame.height; y++) {
+                for (int x = 0; x < frame.width; x++, i++) {
+                    int v = gray[i] & 0xff;
+                    rowBuffer[x] = 0xff000000 | (v << 16) | (v << 8) | v;
+                }
+                displayBitmap.setPixels(rowBuffer, 0, frame.width, 0, y, frame.width, 1);
+            }
+        }
+        Drawable drawable = photoView.getDrawable();
+        if ((drawable instanceof BitmapDrawable) && (((BitmapDrawable) drawable).getBitmap() == displayBitmap)) {
+            photoView.invalidate();
+        } else {
+            photoView.getSuppMatrix(suppMatrix);
+            photoView.setImageBitmap(displayBitmap);
+            photoView.setSuppMatrix(suppMatrix);
+        }
+        currentIndex = index;
+        if (listener != null) {
+            listener.onPlaybackFrame(index, frames.size(), frame.timestamp);
+        }
+    }
+
+    /**
+     * Plays back the recorded frames starting from the oldest one.
+     *
+     * @param fps  playback frame rate
+     * @param loop whether to restart from the oldest frame at the end
+     */
+    public void play(float fps, boolean loop) {
+        play(0, fps, loop);
+    }
+
+    /**
+     * Plays back the recorded frames starting from the given one.
+     *
+     * @param fromIndex first frame to display
+     * @param fps       playback frame rate
+     * @param loop      whether to restart from the oldest frame at the end
+     */
+    public void play(int fromIndex, float fps, boolean loop) {
+        if (fps <= 0) throw new IllegalArgumentException("Frame rate must be positive");
+        stop();
+        if (frames.isEmpty()) return;
+        frameIntervalMs = Math.max(1, Math.round(1000.0 / fps));
+        looping = loop;
+        playing = true;
+        currentIndex = Math.max(-1, Math.min(fromIndex, frames.size()) - 1);
+        handler.post(playbackRunnable);
+    }
+
+    public void stop() {
+        playing = false;
+        handler.removeCallbacks(playbackRunnable);
+    }
+
+    /**
+     * Drops all the recorded frames.
+     */
+    public void clear() {
+        stop();
+        frames.clear();
+        usedBytes = 0;
+        framesSinceKeyframe = 0;
+        previousWidth = previousHeight = -1;
+        decodedFrame = null;
+        currentIndex = -1;
+    }
+
+    private void toGray(Bitmap frame, int width, int height) {
+        final int area = width * height;
+        if (grayBuffer.length < area) grayBuffer = new byte[area];
+        if (previousGray.length < area) previousGray = Arrays.copyOf(previousGray, area);
+        if (rowBuffer.length < width) rowBuffer = new int[width];
+        for (int y = 0, i = 0; y < height; y++) {
+            frame.getPixels(rowBuffer, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++, i++) {
+                int c = rowBuffer[x];
+                grayBuffer[i] = (byte) (((((c >> 16) & 0xff) * 77) + (((c >> 8) & 0xff) * 150) + ((c & 0xff) * 29)) >> 8);
+            }
+        }
+    }
+
+    private void evict(long incoming) {
+        while (!frames.isEmpty() && (usedBytes + incoming > memoryBudget)) {
+            Frame removed = frames.remove(0);
+            usedBytes -= removed.bytes;
+            if (removed.bitmap != null) removed.bitmap.recycle();
+            if (removed == decodedFrame) decodedFrame = null;
+            if (currentIndex >= 0) currentIndex--;
+            if (!frames.isEmpty() && removed.keyframe && !frames.get(0).keyframe) {
+                // The next frame loses its reference, turn it into a keyframe
+                Frame next = frames.get(0);
+                int area = next.width * next.height;
+                byte[] base = Arrays.copyOf(removed.data, area);
+                applyRuns(next.data, base, area);
+                usedBytes += base.length - next.bytes;
+                next.data = base;
+                next.bytes = base.length;
+                next.keyframe = true;
+                if (next == decodedFrame) decodedFrame = null;
+            }
+        }
+    }
+
+    /**
+     * Reconstructs the grayscale pixels of a frame, starting from the closest keyframe or from
+     * the last decoded frame when playing forward.
+     */
+    private byte[] decodeGray(int index) {
+        Frame target = frames.get(index);
+        if (target == decodedFrame) return decodedGray;
+        int area = target.width * target.height;
+        if (decodedGray.length < area) decodedGray = new byte[area];
+        int start;
+        int decodedIndex = (decodedFrame == null) ? -1 : frames.indexOf(decodedFrame);
+        if (!target.keyframe && (decodedIndex >= 0) && (decodedIndex < index)) {
+            start = decodedIndex + 1;
+        } else {
+            start = index;
+            while (!frames.get(start).keyframe) {
+                start--;
+            }
+            System.arraycopy(frames.get(start).data, 0, decodedGray, 0, area);
+            start++;
+        }
+        for (int i = start; i <= index; i++) {
+            Frame frame = frames.get(i);
+            if (frame.keyframe) {
+                System.arraycopy(frame.data, 0, decodedGray, 0, area);
+            } else {
+                applyRuns(frame.data, decodedGray, area);
+            }
+        }
+        decodedFrame = target;
+        return decodedGray;
+    }
+
+    private static class Frame {
+
+        final int width, height;
+        final long timestamp;
+        Bitmap bitmap;
+        byte[] data;
+        boolean keyframe = true;
+        long bytes;
+
+        Frame(int width, int height, long timestamp) {
+            this.width = width;
+            this.height = height;
+            this.timestamp = timestamp;
+        }
+    }
+}
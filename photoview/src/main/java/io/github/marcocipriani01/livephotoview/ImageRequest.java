@@ -0,0 +1,98 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * The size hints passed to {@link ImageSource#decode(ImageRequest)}.
+ */
+@SuppressWarnings("unused")
+public final class ImageRequest {
+
+    private final int viewWidth;
+    private final int viewHeight;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final int sampleSize;
+    private volatile boolean cancelled = false;
+
+    ImageRequest(int viewWidth, int viewHeight, int imageWidth, int imageHeight, int sampleSize) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.sampleSize = sampleSize;
+        targetWidth = (imageWidth + sampleSize - 1) / sampleSize;
+        targetHeight = (imageHeight + sampleSize - 1) / sampleSize;
+    }
+
+    /**
+     * Computes the largest power of 2 subsampling that keeps an image at least as large as the target size,
+     * suitable for {@link android.graphics.BitmapFactory.Options#inSampleSize}.
+     */
+    public static int calculateSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if ((targetWidth <= 0) || (targetHeight <= 0)) return sampleSize;
+        while ((width / (sampleSize * 2) >= targetWidth) && (height / (sampleSize * 2) >= targetHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return the width of the view content area, in pixels
+     */
+    public int getViewWidth() {
+        return viewWidth;
+    }
+
+    /**
+     * @return the height of the view content area, in pixels
+     */
+    public int getViewHeight() {
+        return viewHeight;
+    }
+
+    /**
+     * @return the width of the image needed at the current zoom level, never larger than the full-resolution width
+     */
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    /**
+     * @return the height of the image needed at the current zoom level, never larger than the full-resolution height
+     */
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * @return the power of 2 subsampling of the full-resolution image that matches the target size
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return {@code true} if the result is not needed anymore, e.g. because the image changed or
+     * a higher resolution has been requested meanwhile. Long decodes may check this to stop early
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+
+/**
+ * A loader-agnostic image, displayed with {@link PhotoView#setImageSource(ImageSource)}. Instead of decoding
+ * at full resolution, the source is asked for the resolution the view actually needs: first the one that fits
+ * the view, then higher ones only when the user zooms past the resolution already decoded.
+ */
+public interface ImageSource {
+
+    /**
+     * @return the full-resolution width of the image
+     */
+    int getWidth();
+
+    /**
+     * @return the full-resolution height of the image
+     */
+    int getHeight();
+
+    /**
+     * Decodes the whole image at the resolution described by the request. Called on a background thread.
+     * Implementations may return a bitmap of any size at least as large as the target size (e.g. the closest
+     * {@code inSampleSize} or the closest cached rendition): it is always stretched over the full image size.
+     *
+     * @param request the size hints for this decode
+     * @return the decoded image, or {@code null} if it could not be decoded or the request was cancelled
+     */
+    Bitmap decode(ImageRequest request);
+}
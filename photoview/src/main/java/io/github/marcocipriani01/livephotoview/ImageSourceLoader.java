@@ -0,0 +1,174 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+
+import java.util.concurrent.Future;
+
+/**
+ * Loads an {@link ImageSource} into a {@link PhotoView} at the resolution required by the current zoom level:
+ * first at the size that fits the view, then at higher resolutions only when the user zooms past the
+ * resolution already decoded. Higher resolutions are not discarded when zooming out, only when memory is
+ * trimmed: the image is then decoded again at the resolution that fits the view.
+ */
+class ImageSourceLoader extends SourceRenderer {
+
+    private final ImageSource source;
+    // These are set so we don't keep allocating them on the heap
+    private final Matrix predictedMatrix = new Matrix();
+    private int loadedSampleSize = Integer.MAX_VALUE;
+    private int failedSampleSize = 0;
+    private ImageRequest pendingRequest;
+    private Future<?> pendingFuture;
+
+    ImageSourceLoader(PhotoView photoView, ImageSource source) {
+        super(photoView, source.getWidth(), source.getHeight());
+        this.source = source;
+    }
+
+    ImageSource getSource() {
+        return source;
+    }
+
+    @Override
+    void start() {
+        // The first request is made on the first draw, when the view size is known
+        photoView.invalidate();
+    }
+
+    @Override
+    void release() {
+        released = true;
+        cancelPending();
+    }
+
+    @Override
+    long getByteCount() {
+        return byteCount(drawable.getBitmap());
+    }
+
+    /**
+     * @return the sample size of the resolution that fits the view, or 0 if the view has no size yet
+     */
+    private int fitSampleSize() {
+        final int viewWidth = getContentWidth(), viewHeight = getContentHeight();
+        if ((viewWidth <= 0) || (viewHeight <= 0)) return 0;
+        return sampleSizeFor(Math.min((float) viewWidth / source.getWidth(), (float) viewHeight / source.getHeight()));
+    }
+
+    @Override
+    void trimMemory(boolean keepPreview) {
+        failedSampleSize = 0;
+        if (keepPreview) {
+            // There is a single resolution at a time: replace it with the one that fits the view,
+            // the current bitmap stays on screen until then
+            final int fitSampleSize = fitSampleSize();
+            if (fitSampleSize == 0) return;
+            if ((pendingRequest != null) && (pendingRequest.getSampleSize() < fitSampleSize)) cancelPending();
+            if ((loadedSampleSize < fitSampleSize) && (pendingRequest == null))
+                request(getContentWidth(), getContentHeight(), fitSampleSize);
+            evicted = true;
+            return;
+        }
+        cancelPending();
+        drawable.setBitmap(null);
+        loadedSampleSize = Integer.MAX_VALUE;
+        evicted = true;
+    }
+
+    /**
+     * Lets the resolution that failed to decode be requested again.
+     */
+    @Override
+    void onSettled() {
+        if (failedSampleSize != 0) {
+            failedSampleSize = 0;
+            photoView.invalidate();
+        }
+    }
+
+    @Override
+    void draw(Canvas canvas, Matrix drawMatrix) {
+        if (released || !canRequest()) return;
+        final int viewWidth = getContentWidth(), viewHeight = getContentHeight();
+        if ((viewWidth <= 0) || (viewHeight <= 0)) return;
+        int sampleSize = sampleSizeFor(getScale(drawMatrix));
+        // Zooming in: load the final resolution right away
+        if (photoView.getPredictedDrawMatrix(predictedMatrix)) {
+            sampleSize = Math.min(sampleSize, sampleSizeFor(getScale(predictedMatrix)));
+        } else if (photoView.isDrawingFast()) {
+            // Wait for the image to settle before decoding at a finer level
+            sampleSize *= 2;
+        }
+        if ((sampleSize >= loadedSampleSize) || (sampleSize == failedSampleSize)) return;
+        if (pendingRequest != null) {
+            if (pendingRequest.getSampleSize() <= sampleSize) return;
+            cancelPending();
+        }
+        request(viewWidth, viewHeight, sampleSize);
+    }
+
+    @Override
+    void cancelPending() {
+        if (pendingRequest != null) {
+            pendingRequest.cancel();
+            pendingRequest = null;
+        }
+        if (pendingFuture != null) {
+            pendingFuture.cancel(false);
+            pendingFuture = null;
+        }
+    }
+
+    private void request(int viewWidth, int viewHeight, final int sampleSize) {
+        final ImageRequest request = new ImageRequest(viewWidth, viewHeight,
+                source.getWidth(), source.getHeight(), sampleSize);
+        pendingRequest = request;
+        pendingFuture = schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (released || request.isCancelled()) return;
+                final Bitmap bitmap = decode(request);
+                photoView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (released || (pendingRequest != request)) return;
+                        pendingRequest = null;
+                        pendingFuture = null;
+                        if (bitmap == null) {
+                            failedSampleSize = sampleSize;
+                        } else {
+                            loadedSampleSize = sampleSize;
+                            drawable.setBitmap(bitmap);
+                            onBitmapLoaded();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap decode(ImageRequest request) {
+        try {
+            return source.decode(request);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Displays an MJPEG (multipart/x-mixed-replace) stream in a {@link PhotoView}, as served by many cameras
+ * and allsky servers. Parsing and decoding run on two separate threads: the parser never waits for the
+ * decoder, and the decoder always picks the most recent complete frame, so the displayed image never lags
+ * behind the stream. Frame buffers and bitmaps are pooled and reused.
+ */
+@SuppressWarnings("unused")
+public class MjpegStreamSource {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 10000;
+    private static final int BITMAP_POOL_SIZE = 4;
+    private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+    private final PhotoView photoView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object frameLock = new Object();
+    private final Object bitmapLock = new Object();
+    private final Bitmap[] bitmapPool = new Bitmap[BITMAP_POOL_SIZE];
+    // Slots being decoded into, possibly by the decoder of a stopped session that hasn't returned yet
+    private final boolean[] poolBusy = new boolean[BITMAP_POOL_SIZE];
+    // Triple buffering of the compressed frames: the parser fills one while the decoder reads another
+    private byte[] writingFrame = new byte[0];
+    private byte[] readyFrame = new byte[0];
+    private byte[] decodingFrame = new byte[0];
+    private int readyLength = 0;
+    private boolean frameReady = false;
+    private Bitmap displayedBitmap;
+    private Bitmap previousBitmap;
+    private Bitmap pendingBitmap;
+    private boolean displayPosted = false;
+    private final Runnable displayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Bitmap bitmap;
+            synchronized (bitmapLock) {
+                displayPosted = false;
+                bitmap = pendingBitmap;
+                if ((bitmap == null) || stopped) return;
+                pendingBitmap = null;
+                previousBitmap = displayedBitmap;
+                displayedBitmap = bitmap;
+            }
+            photoView.setImageBitmap(bitmap);
+            displayedFrames++;
+        }
+    };
+    private volatile boolean running = false;
+    // Set by stop(): unlike the end of the stream, nothing more is displayed
+    private volatile boolean stopped = false;
+    private volatile int session = 0;
+    private volatile IOException lastError;
+    private InputStream input;
+    private HttpURLConnection connection;
+    private Thread parserThread;
+    private Thread decoderThread;
+    // Statistics
+    private volatile MultipartParser parser;
+    private volatile long startTime;
+    private volatile long parsedFrames;
+    private volatile long droppedFrames;
+    private volatile long decodedFrames;
+    private volatile long decodeNanos;
+    private volatile long displayedFrames;
+
+    public MjpegStreamSource(PhotoView photoView) {
+        this.photoView = photoView;
+    }
+
+    /**
+     * Connects to an MJPEG server and starts displaying its stream. The connection is made in the background.
+     */
+    public synchronized void start(final URL url) {
+        stop();
+        stopped = false;
+        running = true;
+        final int session = ++this.session;
+        startThreads(session, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                    connection.setConnectTimeout(CONNECT_TIMEOUT);
+                    connection.setReadTimeout(READ_TIMEOUT);
+                    synchronized (MjpegStreamSource.this) {
+                        if (!isActive(session)) return;
+                        MjpegStreamSource.this.connection = connection;
+                    }
+                    InputStream stream = connection.getInputStream();
+                    parse(session, stream, MultipartParser.boundaryOf(connection.getContentType()));
+                } catch (IOException e) {
+                    if (isActive(session)) lastError = e;
+                } finally {
+                    finish(session);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts displaying an MJPEG stream read from any source, such as a socket or a recorded file.
+     *
+     * @param stream   the multipart stream
+     * @param boundary the multipart boundary, or {@code null} to detect it from the stream
+     */
+    public synchronized void start(final InputStream stream, final String boundary) {
+        stop();
+        stopped = false;
+        running = true;
+        final int session = ++this.session;
+        startThreads(session, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    parse(session, stream, boundary);
+                } catch (IOException e) {
+                    if (isActive(session)) lastError = e;
+                } finally {
+                    finish(session);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the stream and closes the connection. The last frame stays displayed.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        running = false;
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+            input = null;
+        }
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+        if (parserThread != null) {
+            parserThread.interrupt();
+            parserThread = null;
+        }
+        if (decoderThread != null) {
+            decoderThread.interrupt();
+            decoderThread = null;
+        }
+        synchronized (frameLock) {
+            frameReady = false;
+            frameLock.notifyAll();
+        }
+        mainHandler.removeCallbacks(displayRunnable);
+        synchronized (bitmapLock) {
+            displayPosted = false;
+            pendingBitmap = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the error that ended the stream, or {@code null}
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return the number of compressed bytes received since the stream started
+     */
+    public long getBytesRead() {
+        MultipartParser parser = this.parser;
+        return (parser == null) ? 0 : parser.getBytesRead();
+    }
+
+    /**
+     * @return the number of frames extracted from the stream
+     */
+    public long getParsedFrames() {
+        return parsedFrames;
+    }
+
+    /**
+     * @return the number of frames skipped because a newer one arrived before they could be decoded
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the number of frames decoded into bitmaps
+     */
+    public long getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    /**
+     * @return the number of frames actually pushed to the view
+     */
+    public long getDisplayedFrames() {
+        return displayedFrames;
+    }
+
+    /**
+     * @return the average parse throughput since the stream started, in bytes per second
+     */
+    public double getParseThroughput() {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+        return (elapsed <= 0) ? 0 : (getBytesRead() * 1e9 / elapsed);
+    }
+
+    /**
+     * @return the average number of frames parsed per second since the stream started
+     */
+    public double getParseFps() {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+        return (elapsed <= 0) ? 0 : (parsedFrames * 1e9 / elapsed);
+    }
+
+    /**
+     * @return the average number of frames decoded per second since the stream started
+     */
+    public double getDecodeFps() {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startTime;
+        return (elapsed <= 0) ? 0 : (decodedFrames * 1e9 / elapsed);
+    }
+
+    /**
+     * @return the average time spent decoding a frame, in milliseconds
+     */
+    public double getAverageDecodeMillis() {
+        long frames = decodedFrames;
+        return (frames == 0) ? 0 : (decodeNanos / 1e6 / frames);
+    }
+
+    private boolean isActive(int session) {
+        return running && (this.session == session);
+    }
+
+    /**
+     * @return {@code true} if the frames of the session can still be displayed: the session may have ended
+     * with the stream, but it hasn't been stopped or replaced
+     */
+    private boolean isDisplayable(int session) {
+        return !stopped && (this.session == session);
+    }
+
+    private void finish(int session) {
+        synchronized (this) {
+            if (this.session == session) running = false;
+        }
+        synchronized (frameLock) {
+            frameLock.notifyAll();
+        }
+    }
+
+    private void startThreads(final int session, Runnable parserTask) {
+        lastError = null;
+        parser = null;
+        parsedFrames = droppedFrames = decodedFrames = decodeNanos = displayedFrames = 0;
+        startTime = SystemClock.elapsedRealtimeNanos();
+        // The threads of the previous session may still hold the old buffers
+        synchronized (frameLock) {
+            writingFrame = new byte[0];
+            readyFrame = new byte[0];
+            decodingFrame = new byte[0];
+            frameReady = false;
+        }
+        parserThread = new Thread(parserTask, "MJPEG parser");
+        decoderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decodeLoop(session);
+            }
+        }, "MJPEG decoder");
+        parserThread.start();
+        decoderThread.start();
+    }
+
+    private void parse(int session, InputStream stream, String boundary) throws IOException {
+        synchronized (this) {
+            if (!isActive(session)) return;
+            input = stream;
+        }
+        MultipartParser parser = new MultipartParser(stream, boundary);
+        this.parser = parser;
+        byte[] frame = writingFrame;
+        int length;
+        while (isActive(session) && ((length = parser.nextPart(frame)) >= 0)) {
+            frame = parser.getPart();
+            if (length == 0) continue;
+            parsedFrames++;
+            synchronized (frameLock) {
+                // Interrupting the thread doesn't stop it before the hand-off
+                if (!isActive(session)) return;
+                if (frameReady) droppedFrames++;
+                writingFrame = readyFrame;
+                readyFrame = frame;
+                readyLength = length;
+                frameReady = true;
+                frameLock.notifyAll();
+            }
+            frame = writingFrame;
+        }
+    }
+
+    private void decodeLoop(int session) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inTempStorage = new byte[TEMP_STORAGE_SIZE];
+        while (true) {
+            final byte[] data;
+            final int length;
+            synchronized (frameLock) {
+                while (isActive(session) && !frameReady) {
+                    try {
+                        frameLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                // When the stream ends, the last frame is still decoded
+                if (!isDisplayable(session) || !frameReady) return;
+                data = readyFrame;
+                readyFrame = decodingFrame;
+                decodingFrame = data;
+                length = readyLength;
+                frameReady = false;
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            Bitmap bitmap = decode(session, options, data, length);
+            if (bitmap == null) continue;
+            decodeNanos += SystemClock.elapsedRealtimeNanos() - start;
+            decodedFrames++;
+            synchronized (bitmapLock) {
+                if (!isDisplayable(session)) return;
+                // Only the latest frame is pushed: an undisplayed one goes back to the pool
+                pendingBitmap = bitmap;
+                if (!displayPosted) {
+                    displayPosted = true;
+                    mainHandler.post(displayRunnable);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the decoded frame, or {@code null} if it couldn't be decoded or the session has been stopped
+     */
+    private Bitmap decode(int session, BitmapFactory.Options options, byte[] data, int length) {
+        int slot = -1;
+        synchronized (bitmapLock) {
+            if (!isDisplayable(session)) return null;
+            for (int i = 0; i < BITMAP_POOL_SIZE; i++) {
+                Bitmap b = bitmapPool[i];
+                if (!poolBusy[i] &&
+                        ((b == null) || ((b != displayedBitmap) && (b != previousBitmap) && (b != pendingBitmap)))) {
+                    slot = i;
+                    poolBusy[i] = true;
+                    break;
+                }
+            }
+        }
+        // Every slot is in use if a stopped decoder is still running: decode without the pool
+        options.inBitmap = (slot < 0) ? null : bitmapPool[slot];
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap is too small for this frame, allocate a new one
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+        options.inBitmap = null;
+        if (slot >= 0) {
+            synchronized (bitmapLock) {
+                if (bitmap != null) bitmapPool[slot] = bitmap;
+                poolBusy[slot] = false;
+            }
+        }
+        return bitmap;
+    }
+}
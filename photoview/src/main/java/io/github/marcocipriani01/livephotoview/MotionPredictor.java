@@ -0,0 +1,137 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * Extrapolates a pointer position to a future time with an alpha-beta filter, which tracks position
+ * and velocity at the cost of a few multiplications per sample. Each prediction is checked against
+ * the actual position once samples past its target time arrive, to measure the prediction error.
+ */
+class MotionPredictor {
+
+    // Weights of the position and velocity corrections
+    private static final float ALPHA = 0.6f;
+    private static final float BETA = 0.3f;
+    /**
+     * Predictions further than this are unreliable, in milliseconds.
+     */
+    private static final long MAX_PREDICTION = 50;
+
+    private long lastTime;
+    private float x, y;
+    private float velocityX, velocityY;
+    private float lastSampleX, lastSampleY;
+    private float predictedX, predictedY;
+    // The last prediction, checked when the following samples arrive
+    private boolean pending = false;
+    private long pendingTime;
+    private float pendingX, pendingY;
+    // Error statistics, in pixels
+    private int errorCount = 0;
+    private double errorSum = 0.0;
+    private float errorMax = 0f;
+
+    /**
+     * Starts tracking a new pointer.
+     */
+    void reset(long time, float x, float y) {
+        lastTime = time;
+        this.x = lastSampleX = predictedX = x;
+        this.y = lastSampleY = predictedY = y;
+        velocityX = velocityY = 0f;
+        pending = false;
+    }
+
+    /**
+     * Adds an actual sample, in chronological order.
+     */
+    void add(long time, float sampleX, float sampleY) {
+        if (pending && (time >= pendingTime)) {
+            // Actual position at the predicted time, interpolated between the samples around it
+            final float t = (time > lastTime) ? ((float) (pendingTime - lastTime) / (time - lastTime)) : 1f;
+            if (t >= 0f) {
+                final float error = (float) Math.hypot(lastSampleX + t * (sampleX - lastSampleX) - pendingX,
+                        lastSampleY + t * (sampleY - lastSampleY) - pendingY);
+                errorCount++;
+                errorSum += error;
+                if (error > errorMax) errorMax = error;
+            }
+            pending = false;
+        }
+        final float dt = time - lastTime;
+        if (dt <= 0f) {
+            // Same timestamp: just take the latest position
+            x = sampleX;
+            y = sampleY;
+        } else {
+            final float residualX = sampleX - (x + velocityX * dt), residualY = sampleY - (y + velocityY * dt);
+            x += velocityX * dt + ALPHA * residualX;
+            y += velocityY * dt + ALPHA * residualY;
+            velocityX += BETA * residualX / dt;
+            velocityY += BETA * residualY / dt;
+        }
+        lastTime = time;
+        lastSampleX = sampleX;
+        lastSampleY = sampleY;
+    }
+
+    /**
+     * Extrapolates the position to the given time, see {@link #getPredictedX()} and {@link #getPredictedY()}.
+     */
+    void predict(long time) {
+        final long dt = Math.max(0, Math.min(MAX_PREDICTION, time - lastTime));
+        predictedX = x + velocityX * dt;
+        predictedY = y + velocityY * dt;
+        pending = dt > 0;
+        pendingTime = lastTime + dt;
+        pendingX = predictedX;
+        pendingY = predictedY;
+    }
+
+    float getPredictedX() {
+        return predictedX;
+    }
+
+    float getPredictedY() {
+        return predictedY;
+    }
+
+    float getLastSampleX() {
+        return lastSampleX;
+    }
+
+    float getLastSampleY() {
+        return lastSampleY;
+    }
+
+    int getErrorCount() {
+        return errorCount;
+    }
+
+    double getErrorSum() {
+        return errorSum;
+    }
+
+    float getErrorMax() {
+        return errorMax;
+    }
+
+    void resetErrors() {
+        errorCount = 0;
+        errorSum = 0.0;
+        errorMax = 0f;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Incremental multipart/x-mixed-replace parser working on raw bytes. The input buffer, the header line
+ * buffer and the boundary matcher are allocated once, and part bodies are read into a caller-supplied array
+ * that only grows when a larger part arrives, so steady-state parsing doesn't allocate.
+ */
+class MultipartParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_SIZE = 8 * 1024;
+    private static final byte[] CONTENT_LENGTH = {'c', 'o', 'n', 't', 'e', 'n', 't', '-', 'l', 'e', 'n', 'g', 't', 'h', ':'};
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private long bytesRead = 0;
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    // "\r\n--boundary", with its KMP failure table
+    private byte[] delimiter;
+    private int[] failure;
+    private boolean delimiterConsumed = false;
+    private byte[] part = new byte[0];
+    private int partLength = 0;
+
+    /**
+     * @param input    the multipart stream
+     * @param boundary the boundary declared in the Content-Type header, or {@code null} to learn it from the
+     *                 first delimiter line of the stream
+     */
+    MultipartParser(InputStream input, String boundary) {
+        this.input = input;
+        if (boundary != null) {
+            setBoundary(("--" + (boundary.startsWith("--") ? boundary.substring(2) : boundary)).getBytes());
+        }
+    }
+
+    /**
+     * Extracts the boundary parameter from a Content-Type header value.
+     *
+     * @return the boundary, or {@code null}
+     */
+    static String boundaryOf(String contentType) {
+        if (contentType == null) return null;
+        int index = contentType.toLowerCase().indexOf("boundary=");
+        if (index < 0) return null;
+        String boundary = contentType.substring(index + 9).trim();
+        int end = boundary.indexOf(';');
+        if (end >= 0) boundary = boundary.substring(0, end).trim();
+        if (boundary.startsWith("\"") && boundary.endsWith("\"") && (boundary.length() >= 2))
+            boundary = boundary.substring(1, boundary.length() - 1);
+        return boundary.isEmpty() ? null : boundary;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] data, int length, byte[] prefix) {
+        if (length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            int c = data[i];
+            if ((c >= 'A') && (c <= 'Z')) c += 'a' - 'A';
+            if (c != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private void setBoundary(byte[] boundary) {
+        delimiter = new byte[boundary.length + 2];
+        delimiter[0] = '\r';
+        delimiter[1] = '\n';
+        System.arraycopy(boundary, 0, delimiter, 2, boundary.length);
+        failure = new int[delimiter.length];
+        for (int i = 1, k = 0; i < delimiter.length; i++) {
+            while ((k > 0) && (delimiter[i] != delimiter[k])) {
+                k = failure[k - 1];
+            }
+            if (delimiter[i] == delimiter[k]) k++;
+            failure[i] = k;
+        }
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads the next part of the stream into {@code destination}, which is grown if needed.
+     *
+     * @param destination the array to fill, may be replaced by a larger one: use {@link #getPart()} afterwards
+     * @return the length of the part, or -1 at the end of the stream
+     */
+    int nextPart(byte[] destination) throws IOException {
+        part = destination;
+        if (!delimiterConsumed && !skipToDelimiter()) return -1;
+        delimiterConsumed = false;
+        // Part headers
+        int contentLength = -1;
+        while (true) {
+            if (!readLine()) return -1;
+            if (lineLength == 0) break;
+            if (startsWithIgnoreCase(line, lineLength, CONTENT_LENGTH)) {
+                int value = 0;
+                boolean digits = false;
+                for (int i = CONTENT_LENGTH.length; i < lineLength; i++) {
+                    byte c = line[i];
+                    if ((c >= '0') && (c <= '9')) {
+                        value = value * 10 + (c - '0');
+                        digits = true;
+                    } else if (digits) {
+                        break;
+                    }
+                }
+                if (digits) contentLength = value;
+            }
+        }
+        // Body
+        if (contentLength >= 0) {
+            ensureCapacity(contentLength);
+            partLength = 0;
+            while (partLength < contentLength) {
+                if ((position == limit) && !fill()) return -1;
+                int n = Math.min(contentLength - partLength, limit - position);
+                System.arraycopy(buffer, position, part, partLength, n);
+                position += n;
+                partLength += n;
+            }
+        } else if (!readUntilDelimiter()) {
+            return -1;
+        }
+        return partLength;
+    }
+
+    /**
+     * @return the array holding the last part, which may differ from the one passed to {@link #nextPart(byte[])}
+     */
+    byte[] getPart() {
+        return part;
+    }
+
+    private boolean fill() throws IOException {
+        int n = input.read(buffer, 0, BUFFER_SIZE);
+        if (n <= 0) return false;
+        position = 0;
+        limit = n;
+        bytesRead += n;
+        return true;
+    }
+
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if ((position == limit) && !fill()) return false;
+            byte c = buffer[position++];
+            if (c == '\n') {
+                if ((lineLength > 0) && (line[lineLength - 1] == '\r')) lineLength--;
+                return true;
+            }
+            if (lineLength == line.length) {
+                if (line.length >= MAX_LINE_SIZE) continue;
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = c;
+        }
+    }
+
+    /**
+     * Skips everything up to the next delimiter line, learning the boundary if it's not known yet.
+     *
+     * @return {@code false} at the end of the stream or at the closing delimiter
+     */
+    private boolean skipToDelimiter() throws IOException {
+        while (readLine()) {
+            if ((lineLength < 2) || (line[0] != '-') || (line[1] != '-')) continue;
+            if (delimiter == null) {
+                setBoundary(Arrays.copyOf(line, lineLength));
+                return true;
+            }
+            int boundaryLength = delimiter.length - 2;
+            if ((lineLength >= boundaryLength) && equalsDelimiter(line)) {
+                // A trailing "--" marks the end of the multipart body
+                return !((lineLength >= boundaryLength + 2) &&
+                        (line[boundaryLength] == '-') && (line[boundaryLength + 1] == '-'));
+            }
+        }
+        return false;
+    }
+
+    private boolean equalsDelimiter(byte[] data) {
+        for (int i = 2; i < delimiter.length; i++) {
+            if (data[i - 2] != delimiter[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a body without Content-Length, up to the next delimiter, which is consumed.
+     */
+    private boolean readUntilDelimiter() throws IOException {
+        if (delimiter == null) throw new IOException("Multipart boundary unknown");
+        partLength = 0;
+        int matched = 0;
+        while (true) {
+            if ((position == limit) && !fill()) return false;
+            byte c = buffer[position++];
+            while ((matched > 0) && (c != delimiter[matched])) {
+                // Bytes that were part of a partial match belong to the body
+                int keep = matched - failure[matched - 1];
+                appendDelimiterPrefix(keep);
+                matched = failure[matched - 1];
+            }
+            if (c == delimiter[matched]) {
+                matched++;
+                if (matched == delimiter.length) {
+                    // Skip the rest of the delimiter line
+                    if (!readLine()) return false;
+                    delimiterConsumed = true;
+                    return true;
+                }
+            } else {
+                ensureCapacity(partLength + 1);
+                part[partLength++] = c;
+            }
+        }
+    }
+
+    private void appendDelimiterPrefix(int count) {
+        ensureCapacity(partLength + count);
+        System.arraycopy(delimiter, 0, part, partLength, count);
+        partLength += count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (part.length < capacity) {
+            part = Arrays.copyOf(part, Math.max(capacity, part.length + (part.length >> 1)));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import java.util.List;
+
+/**
+ * Interface definition for a callback to be invoked when {@link FocusMetricEngine} completes a measurement.
+ */
+public interface OnFocusMetricListener {
+
+    /**
+     * Callback for when a new focus measurement is available. Always invoked on the main thread.
+     *
+     * @param latest  the measurement of the last analyzed frame
+     * @param history the rolling time series of the last measurements, oldest first, including {@code latest}
+     */
+    void onFocusMetric(FocusMetric latest, List<FocusMetric> history);
+}
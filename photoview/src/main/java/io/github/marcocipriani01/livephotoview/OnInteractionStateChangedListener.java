@@ -0,0 +1,31 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * Interface definition for a callback to be invoked when the user starts or stops moving the image,
+ * or when a fling or zoom animation starts or ends.
+ */
+public interface OnInteractionStateChangedListener {
+
+    /**
+     * Callback for when the interaction state changes
+     *
+     * @param oldState the previous state, one of the {@code PhotoView.INTERACTION_*} constants
+     * @param newState the new state, one of the {@code PhotoView.INTERACTION_*} constants
+     */
+    void onInteractionStateChanged(int oldState, int newState);
+}
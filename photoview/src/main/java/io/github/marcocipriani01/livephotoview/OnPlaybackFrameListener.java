@@ -0,0 +1,31 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * Interface definition for a callback to be invoked when {@link FrameHistory} displays a recorded frame.
+ */
+public interface OnPlaybackFrameListener {
+
+    /**
+     * Callback for when a recorded frame has been displayed, either by scrubbing or during playback.
+     *
+     * @param index     index of the displayed frame, 0 being the oldest one
+     * @param count     number of frames currently recorded
+     * @param timestamp time at which the frame was recorded, in {@link android.os.SystemClock#uptimeMillis()} base
+     */
+    void onPlaybackFrame(int index, int count, long timestamp);
+}
@@ -0,0 +1,30 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * Interface definition for a callback to be invoked when the image has stopped moving for the settle delay,
+ * the right time to start heavy work that depends on the visible part of the image.
+ */
+public interface OnSettledListener {
+
+    /**
+     * Callback for when the image settles
+     *
+     * @param snapshot the transform the image settled at
+     */
+    void onSettled(TransformSnapshot snapshot);
+}
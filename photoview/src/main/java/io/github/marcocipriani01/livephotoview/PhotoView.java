@@ -18,27 +18,86 @@ package io.github.marcocipriani01.livephotoview;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.view.animation.Interpolator;
 
 import androidx.appcompat.widget.AppCompatImageView;
+import androidx.core.view.NestedScrollingChild2;
+import androidx.core.view.NestedScrollingChildHelper;
 
 /**
  * A zoomable ImageView. See {@link PhotoViewAttacher} for most of the details on how the zooming
- * is accomplished
+ * is accomplished. Inside a nested scrolling parent, the part of a drag that goes beyond the edges
+ * of the image and flings are passed to the parent.
  */
 @SuppressWarnings("unused")
-public class PhotoView extends AppCompatImageView {
+public class PhotoView extends AppCompatImageView implements NestedScrollingChild2 {
+
+    /**
+     * Decode priority of the view on screen, the default.
+     */
+    public static final int DECODE_PRIORITY_VISIBLE = 0;
+    /**
+     * Decode priority of a view that is about to be shown, e.g. the pages next to the current one.
+     */
+    public static final int DECODE_PRIORITY_NEIGHBOUR = 1;
+    /**
+     * Decode priority of a view that may be shown later.
+     */
+    public static final int DECODE_PRIORITY_PREFETCH = 2;
+    /**
+     * Interaction state of an image that isn't moving.
+     */
+    public static final int INTERACTION_IDLE = 0;
+    /**
+     * Interaction state of an image dragged by the user.
+     */
+    public static final int INTERACTION_DRAGGING = 1;
+    /**
+     * Interaction state of an image pinched by the user.
+     */
+    public static final int INTERACTION_SCALING = 2;
+    /**
+     * Interaction state of an image moving after a fling.
+     */
+    public static final int INTERACTION_FLINGING = 3;
+    /**
+     * Interaction state of an image zoomed by an animation, e.g. after a double tap.
+     */
+    public static final int INTERACTION_ANIMATING = 4;
 
     private ScaleType pendingScaleType;
     private PhotoViewAttacher attacher = null;
     private int lastWidth = -1, lastHeight = -1;
-    private boolean noUpdate = false;
+    private SourceRenderer sourceRenderer = null;
+    // Draws the bitmaps of BitmapDrawables too large for the canvas
+    private TileRenderer oversizeRenderer = null;
+    private boolean settingSource = false;
+    private int decodePriority = DECODE_PRIORITY_VISIBLE;
+    private long lastDrawTime = 0;
+    private final Rect screenRect = new Rect();
+    // These are set so we don't keep allocating them on the heap
+    private final Matrix inverseDrawMatrix = new Matrix();
+    private final RectF visibleBitmapRect = new RectF();
+    private final Rect visibleBitmapSrc = new Rect();
+    private DrawingQuality quality = null;
+    private VectorRasterizer rasterizer = null;
+    private PixelInspector inspector = null;
+    private NestedScrollingChildHelper nestedScrollingHelper = null;
+    private OnInteractionStateChangedListener interactionStateListener = null;
+    private OnSettledListener settledListener = null;
 
     public PhotoView(Context context) {
         super(context, null);
@@ -55,8 +114,44 @@ public class PhotoView extends AppCompatImageView {
         init();
     }
 
+    /**
+     * Sets the maximum amount of memory used by the bitmaps of all the PhotoView instances of the process.
+     * The default is a quarter of the maximum heap size. Views displaying a {@link RegionSource} or an
+     * {@link ImageSource} that haven't been drawn recently free their bitmaps when the budget is exceeded,
+     * and restore them when they are back on screen. Must be called on the main thread.
+     *
+     * @param bytes the budget, in bytes
+     */
+    public static void setBitmapMemoryBudget(long bytes) {
+        BitmapMemoryBudget.getInstance().setBudget(bytes);
+    }
+
+    public static long getBitmapMemoryBudget() {
+        return BitmapMemoryBudget.getInstance().getBudget();
+    }
+
     private void init() {
-        attacher = new PhotoViewAttacher(this);
+        attacher = new PhotoViewAttacher(this, getNestedScrollingHelper());
+        quality = new DrawingQuality(this);
+        rasterizer = new VectorRasterizer(this);
+        inspector = new PixelInspector(this);
+        // The drawing quality and the rasterizer follow the state before the listeners of the application
+        attacher.setOnInteractionStateChangedListener(new OnInteractionStateChangedListener() {
+            @Override
+            public void onInteractionStateChanged(int oldState, int newState) {
+                if (interactionStateListener != null)
+                    interactionStateListener.onInteractionStateChanged(oldState, newState);
+            }
+        });
+        attacher.setOnSettledListener(new OnSettledListener() {
+            @Override
+            public void onSettled(TransformSnapshot snapshot) {
+                quality.onSettled();
+                rasterizer.onSettled();
+                if (sourceRenderer != null) sourceRenderer.onSettled();
+                if (settledListener != null) settledListener.onSettled(snapshot);
+            }
+        });
         // We always pose as a Matrix scale type, though we can change to another scale type via the attacher
         super.setScaleType(ScaleType.MATRIX);
         // Apply the previously applied scale type
@@ -66,6 +161,71 @@ public class PhotoView extends AppCompatImageView {
         }
     }
 
+    /**
+     * Orients the image without copying its pixels: the rotation and the flips are part of the image matrix,
+     * so that the zoom, the scroll bounds, the flings and the tap coordinates all follow the oriented image.
+     * Flips are applied after the rotation, along the axes of the screen. Resets the zoom.
+     *
+     * @param degrees        the clockwise rotation, a multiple of 90
+     * @param flipHorizontal {@code true} to mirror the image left to right, e.g. for a diagonal mirror
+     * @param flipVertical   {@code true} to mirror the image top to bottom
+     * @throws IllegalArgumentException if the rotation is not a multiple of 90
+     */
+    public void setOrientation(int degrees, boolean flipHorizontal, boolean flipVertical) {
+        attacher.setOrientation(degrees, flipHorizontal, flipVertical);
+    }
+
+    /**
+     * Orients the image following an EXIF orientation tag, as returned by
+     * {@code ExifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)}.
+     *
+     * @param exifOrientation a value between 1 and 8, anything else is treated as normal
+     * @see #setOrientation(int, boolean, boolean)
+     */
+    public void setExifOrientation(int exifOrientation) {
+        switch (exifOrientation) {
+            case 2: // Flip horizontal
+                setOrientation(0, true, false);
+                break;
+            case 3: // Rotate 180
+                setOrientation(180, false, false);
+                break;
+            case 4: // Flip vertical
+                setOrientation(0, false, true);
+                break;
+            case 5: // Transpose
+                setOrientation(90, true, false);
+                break;
+            case 6: // Rotate 90
+                setOrientation(90, false, false);
+                break;
+            case 7: // Transverse
+                setOrientation(90, false, true);
+                break;
+            case 8: // Rotate 270
+                setOrientation(270, false, false);
+                break;
+            default:
+                setOrientation(0, false, false);
+                break;
+        }
+    }
+
+    /**
+     * @return the clockwise rotation set with {@link #setOrientation(int, boolean, boolean)}, between 0 and 270
+     */
+    public int getOrientation() {
+        return attacher.getOrientation();
+    }
+
+    public boolean isFlippedHorizontally() {
+        return attacher.isFlippedHorizontally();
+    }
+
+    public boolean isFlippedVertically() {
+        return attacher.isFlippedVertically();
+    }
+
     public void setBaseRotation(float degrees) {
         attacher.setBaseRotation(degrees);
     }
@@ -103,43 +263,666 @@ public class PhotoView extends AppCompatImageView {
         attacher.setOnClickListener(l);
     }
 
-    @Override
-    public void setImageBitmap(Bitmap bm) {
-        if (bm == null) {
-            noUpdate = false;
-            lastWidth = -1;
-            lastHeight = -1;
-        } else {
-            int width = bm.getWidth(), height = bm.getHeight();
-            noUpdate = ((width == lastWidth) && (height == lastHeight));
-            lastWidth = width;
-            lastHeight = height;
-        }
-        super.setImageBitmap(bm);
-    }
-
+    /**
+     * When the new image has the same size as the previous one, e.g. a placeholder made with
+     * {@link SizedDrawable} or {@link #setImageSize(int, int)}, the zoom and position are kept.
+     */
     @Override
     public void setImageDrawable(Drawable drawable) {
+        if (!settingSource) releaseSource();
+        if (!(drawable instanceof BitmapDrawable)) releaseOversizeRenderer();
+        // The base matrix only depends on the image size: don't compute it again if it's the same
+        final int width = (drawable == null) ? -1 : drawable.getIntrinsicWidth(),
+                height = (drawable == null) ? -1 : drawable.getIntrinsicHeight();
+        final boolean sameSize = (width > 0) && (height > 0) && (width == lastWidth) && (height == lastHeight);
+        lastWidth = width;
+        lastHeight = height;
         super.setImageDrawable(drawable);
         // setImageBitmap calls through to this method
-        if ((attacher != null) && (!noUpdate)) attacher.update();
-        noUpdate = false;
+        if ((attacher != null) && !sameSize) attacher.update();
+        if (isAttachedToWindow()) BitmapMemoryBudget.getInstance().requestCheck();
     }
 
     @Override
     public void setImageResource(int resId) {
+        releaseSource();
         super.setImageResource(resId);
         if (attacher != null) {
             attacher.update();
         }
+        rememberImageSize();
     }
 
     @Override
     public void setImageURI(Uri uri) {
+        releaseSource();
         super.setImageURI(uri);
         if (attacher != null) {
             attacher.update();
         }
+        rememberImageSize();
+    }
+
+    private void rememberImageSize() {
+        final Drawable drawable = getDrawable();
+        lastWidth = (drawable == null) ? -1 : drawable.getIntrinsicWidth();
+        lastHeight = (drawable == null) ? -1 : drawable.getIntrinsicHeight();
+    }
+
+    /**
+     * Declares the size of an image that is still loading. The view is empty, but its zoom and position are
+     * computed as if the image was there, and kept when an image of that size is set. Use a {@link SizedDrawable}
+     * to show a placeholder meanwhile.
+     *
+     * @param width  the width of the image, in pixels
+     * @param height the height of the image, in pixels
+     */
+    public void setImageSize(int width, int height) {
+        setImageDrawable(new SizedDrawable(width, height));
+    }
+
+    /**
+     * Displays an image decoded one region at a time. Only the regions visible on screen are decoded,
+     * at the resolution required by the current zoom level, over a low-resolution preview of the whole image.
+     * The base matrix is computed from the full-resolution size right away, before any pixel is available.
+     *
+     * @param source the image to display, or {@code null} to clear the view
+     */
+    public void setRegionSource(RegionSource source) {
+        setSourceRenderer((source == null) ? null : new TileRenderer(this, source));
+    }
+
+    /**
+     * @return the region source being displayed, or {@code null}
+     */
+    public RegionSource getRegionSource() {
+        return (sourceRenderer instanceof TileRenderer) ? ((TileRenderer) sourceRenderer).getSource() : null;
+    }
+
+    /**
+     * Displays an image decoded at the resolution the view actually needs. The source is first asked for
+     * the resolution that fits the view, and then for higher ones only when the user zooms past the
+     * resolution already decoded. The base matrix is computed from the full-resolution size right away,
+     * so refinements never move the image.
+     *
+     * @param source the image to display, or {@code null} to clear the view
+     */
+    public void setImageSource(ImageSource source) {
+        setSourceRenderer((source == null) ? null : new ImageSourceLoader(this, source));
+    }
+
+    /**
+     * @return the image source being displayed, or {@code null}
+     */
+    public ImageSource getImageSource() {
+        return (sourceRenderer instanceof ImageSourceLoader) ? ((ImageSourceLoader) sourceRenderer).getSource() : null;
+    }
+
+    private void setSourceRenderer(SourceRenderer renderer) {
+        releaseSource();
+        if (renderer == null) {
+            setImageDrawable(null);
+            return;
+        }
+        sourceRenderer = renderer;
+        settingSource = true;
+        setImageDrawable(renderer.getDrawable());
+        settingSource = false;
+        renderer.start();
+    }
+
+    /**
+     * Prepares the view to be reused for another image, e.g. from {@code RecyclerView.Adapter#onViewRecycled}:
+     * the image and its source are dropped, the pending decodes are cancelled, and the zoom, the rotation and
+     * the running animations are reset. The listeners and the settings are kept, and nothing is reallocated.
+     */
+    public void reset() {
+        DecodeScheduler.getInstance().cancel(this);
+        rasterizer.clear();
+        setImageDrawable(null);
+        attacher.reset();
+    }
+
+    private void releaseOversizeRenderer() {
+        if (oversizeRenderer != null) {
+            oversizeRenderer.release();
+            oversizeRenderer.getDrawable().setCallback(null);
+            oversizeRenderer = null;
+        }
+    }
+
+    private void releaseSource() {
+        if (sourceRenderer != null) {
+            sourceRenderer.release();
+            sourceRenderer = null;
+        }
+    }
+
+    /**
+     * Sets the priority of the background decodes of this view, which share a bounded pool with all the other
+     * PhotoView instances. Galleries should mark the current page as visible and the other ones as neighbours.
+     *
+     * @param priority one of {@link #DECODE_PRIORITY_VISIBLE}, {@link #DECODE_PRIORITY_NEIGHBOUR}
+     *                 or {@link #DECODE_PRIORITY_PREFETCH}
+     */
+    public void setDecodePriority(int priority) {
+        if ((priority < DECODE_PRIORITY_VISIBLE) || (priority > DECODE_PRIORITY_PREFETCH))
+            throw new IllegalArgumentException("Unknown decode priority: " + priority);
+        if (priority == decodePriority) return;
+        decodePriority = priority;
+        DecodeScheduler.getInstance().setPriority(this, priority);
+    }
+
+    public int getDecodePriority() {
+        return decodePriority;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        BitmapMemoryBudget.getInstance().register(this);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // Off-screen pages must not keep the decoders busy, what's missing is requested again when reattached
+        if (sourceRenderer != null) sourceRenderer.cancelPending();
+        if (oversizeRenderer != null) oversizeRenderer.cancelPending();
+        DecodeScheduler.getInstance().cancel(this);
+        rasterizer.clear();
+        getNestedScrollingHelper().onDetachedFromWindow();
+    }
+
+    /**
+     * Created on first use, since the View constructor may already enable or disable nested scrolling.
+     */
+    private NestedScrollingChildHelper getNestedScrollingHelper() {
+        if (nestedScrollingHelper == null) {
+            nestedScrollingHelper = new NestedScrollingChildHelper(this);
+            nestedScrollingHelper.setNestedScrollingEnabled(true);
+        }
+        return nestedScrollingHelper;
+    }
+
+    @Override
+    public void setNestedScrollingEnabled(boolean enabled) {
+        getNestedScrollingHelper().setNestedScrollingEnabled(enabled);
+    }
+
+    @Override
+    public boolean isNestedScrollingEnabled() {
+        return getNestedScrollingHelper().isNestedScrollingEnabled();
+    }
+
+    @Override
+    public boolean startNestedScroll(int axes) {
+        return getNestedScrollingHelper().startNestedScroll(axes);
+    }
+
+    @Override
+    public boolean startNestedScroll(int axes, int type) {
+        return getNestedScrollingHelper().startNestedScroll(axes, type);
+    }
+
+    @Override
+    public void stopNestedScroll() {
+        getNestedScrollingHelper().stopNestedScroll();
+    }
+
+    @Override
+    public void stopNestedScroll(int type) {
+        getNestedScrollingHelper().stopNestedScroll(type);
+    }
+
+    @Override
+    public boolean hasNestedScrollingParent() {
+        return getNestedScrollingHelper().hasNestedScrollingParent();
+    }
+
+    @Override
+    public boolean hasNestedScrollingParent(int type) {
+        return getNestedScrollingHelper().hasNestedScrollingParent(type);
+    }
+
+    @Override
+    public boolean dispatchNestedScroll(int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed,
+                                        int[] offsetInWindow) {
+        return getNestedScrollingHelper().dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed,
+                offsetInWindow);
+    }
+
+    @Override
+    public boolean dispatchNestedScroll(int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed,
+                                        int[] offsetInWindow, int type) {
+        return getNestedScrollingHelper().dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed,
+                offsetInWindow, type);
+    }
+
+    @Override
+    public boolean dispatchNestedPreScroll(int dx, int dy, int[] consumed, int[] offsetInWindow) {
+        return getNestedScrollingHelper().dispatchNestedPreScroll(dx, dy, consumed, offsetInWindow);
+    }
+
+    @Override
+    public boolean dispatchNestedPreScroll(int dx, int dy, int[] consumed, int[] offsetInWindow, int type) {
+        return getNestedScrollingHelper().dispatchNestedPreScroll(dx, dy, consumed, offsetInWindow, type);
+    }
+
+    @Override
+    public boolean dispatchNestedFling(float velocityX, float velocityY, boolean consumed) {
+        return getNestedScrollingHelper().dispatchNestedFling(velocityX, velocityY, consumed);
+    }
+
+    @Override
+    public boolean dispatchNestedPreFling(float velocityX, float velocityY) {
+        return getNestedScrollingHelper().dispatchNestedPreFling(velocityX, velocityY);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        quality.beforeDraw(getDrawable(), attacher.getDrawnMatrix(), attacher.isInteracting());
+        if (!drawOversizeBitmap(canvas) && !drawVisibleBitmap(canvas) && !rasterizer.draw(canvas, getDrawable(), attacher.getDrawnMatrix()))
+            super.onDraw(canvas);
+        lastDrawTime = SystemClock.uptimeMillis();
+        if (sourceRenderer != null) {
+            sourceRenderer.draw(canvas, attacher.getDrawnMatrix());
+        }
+        inspector.draw(canvas, getDrawable(), attacher.getDrawnMatrix());
+    }
+
+    /**
+     * Draws a bitmap too large for the canvas, e.g. exceeding the maximum texture size, one tile at a time.
+     * The decision is taken with the limits of the canvas the bitmap is drawn on, and {@link #getDrawable()}
+     * keeps returning the {@link BitmapDrawable} that was set.
+     *
+     * @return {@code false} if the Drawable must be drawn as usual
+     */
+    private boolean drawOversizeBitmap(Canvas canvas) {
+        final Drawable drawable = getDrawable();
+        final Bitmap bitmap = (drawable instanceof BitmapDrawable) ? ((BitmapDrawable) drawable).getBitmap() : null;
+        if ((sourceRenderer != null) || (bitmap == null) || !BitmapRegionSource.isOversize(bitmap, canvas)) {
+            releaseOversizeRenderer();
+            return false;
+        }
+        final BitmapRegionSource current = (oversizeRenderer == null) ? null :
+                (BitmapRegionSource) oversizeRenderer.getSource();
+        if ((current == null) || (current.getWidth() != bitmap.getWidth()) || (current.getHeight() != bitmap.getHeight())) {
+            releaseOversizeRenderer();
+            oversizeRenderer = new TileRenderer(this, new BitmapRegionSource(bitmap));
+            oversizeRenderer.getDrawable().setCallback(this);
+            oversizeRenderer.start();
+        } else if (current.getBitmap() != bitmap) {
+            // A live frame: the tiles are decoded again, over the previous ones
+            current.setBitmap(bitmap);
+            oversizeRenderer.reload();
+        }
+        final Matrix drawMatrix = attacher.getDrawnMatrix();
+        final Drawable preview = oversizeRenderer.getDrawable();
+        preview.setBounds(drawable.getBounds());
+        final int saveCount = canvas.save();
+        if (getCropToPadding()) {
+            final int scrollX = getScrollX(), scrollY = getScrollY();
+            canvas.clipRect(scrollX + getPaddingLeft(), scrollY + getPaddingTop(),
+                    scrollX + getWidth() - getPaddingRight(), scrollY + getHeight() - getPaddingBottom());
+        }
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(drawMatrix);
+        preview.draw(canvas);
+        canvas.restoreToCount(saveCount);
+        oversizeRenderer.draw(canvas, drawMatrix);
+        return true;
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable dr) {
+        return super.verifyDrawable(dr) || ((oversizeRenderer != null) && (dr == oversizeRenderer.getDrawable()));
+    }
+
+    /**
+     * Draws only the part of a bitmap that is visible on screen, so that the software rasterization and the
+     * sampling of the GPU scale with the visible area instead of the bitmap size. The hardware renderer still
+     * uploads the whole bitmap as a texture. The output is the same as ImageView's.
+     *
+     * @return {@code false} if the Drawable must be drawn as usual
+     */
+    private boolean drawVisibleBitmap(Canvas canvas) {
+        final Drawable drawable = getDrawable();
+        if (!(drawable instanceof BitmapDrawable)) return false;
+        // ImageView draws past its bounds if the parent doesn't clip them
+        final ViewParent parent = getParent();
+        if ((parent instanceof ViewGroup) && !((ViewGroup) parent).getClipChildren()) return false;
+        final BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
+        final Bitmap bitmap = bitmapDrawable.getBitmap();
+        final Rect bounds = drawable.getBounds();
+        // Leave anything BitmapDrawable does besides stretching the bitmap over its bounds to it
+        if ((bitmap == null) || bounds.isEmpty() || (bitmapDrawable.getTileModeX() != null) ||
+                (bitmapDrawable.getTileModeY() != null) || (bitmapDrawable.getGravity() != Gravity.FILL) ||
+                drawable.isAutoMirrored() || (getImageTintList() != null) || (getSupportImageTintList() != null))
+            return false;
+        final Matrix drawMatrix = attacher.getDrawnMatrix();
+        if (!drawMatrix.invert(inverseDrawMatrix)) return false;
+        final int paddingLeft = getPaddingLeft(), paddingTop = getPaddingTop();
+        final int scrollX = getScrollX(), scrollY = getScrollY();
+        final boolean cropToPadding = getCropToPadding();
+        if (cropToPadding) {
+            visibleBitmapRect.set(0, 0, getWidth() - paddingLeft - getPaddingRight(), getHeight() - paddingTop - getPaddingBottom());
+        } else {
+            visibleBitmapRect.set(-paddingLeft, -paddingTop, getWidth() - paddingLeft, getHeight() - paddingTop);
+        }
+        // The canvas is already translated by the scroll, unlike the content
+        visibleBitmapRect.offset(scrollX, scrollY);
+        inverseDrawMatrix.mapRect(visibleBitmapRect);
+        // To bitmap pixels, with an extra pixel on each side so that filtering at the screen edges is unchanged
+        final int bitmapWidth = bitmap.getWidth(), bitmapHeight = bitmap.getHeight();
+        final float scaleX = (float) bitmapWidth / bounds.width(), scaleY = (float) bitmapHeight / bounds.height();
+        visibleBitmapSrc.set((int) Math.floor((visibleBitmapRect.left - bounds.left) * scaleX) - 1,
+                (int) Math.floor((visibleBitmapRect.top - bounds.top) * scaleY) - 1,
+                (int) Math.ceil((visibleBitmapRect.right - bounds.left) * scaleX) + 1,
+                (int) Math.ceil((visibleBitmapRect.bottom - bounds.top) * scaleY) + 1);
+        // Nothing visible: nothing to draw
+        if (!visibleBitmapSrc.intersect(0, 0, bitmapWidth, bitmapHeight)) return true;
+        if ((visibleBitmapSrc.width() == bitmapWidth) && (visibleBitmapSrc.height() == bitmapHeight)) return false;
+        visibleBitmapRect.set(bounds.left + visibleBitmapSrc.left / scaleX, bounds.top + visibleBitmapSrc.top / scaleY,
+                bounds.left + visibleBitmapSrc.right / scaleX, bounds.top + visibleBitmapSrc.bottom / scaleY);
+        final int saveCount = canvas.save();
+        if (cropToPadding) {
+            canvas.clipRect(scrollX + paddingLeft, scrollY + paddingTop,
+                    scrollX + getWidth() - getPaddingRight(), scrollY + getHeight() - getPaddingBottom());
+        }
+        canvas.translate(paddingLeft, paddingTop);
+        canvas.concat(drawMatrix);
+        canvas.drawBitmap(bitmap, visibleBitmapSrc, visibleBitmapRect, bitmapDrawable.getPaint());
+        canvas.restoreToCount(saveCount);
+        return true;
+    }
+
+    /**
+     * Draws a cheaper representation while a gesture or animation moves the image: bitmaps are drawn
+     * without filtering, and region and image sources don't decode finer levels than one above the
+     * resolution needed on screen. Full quality is restored once the image has been still for the settle delay.
+     *
+     * @param enabled {@code true} to enable, disabled by default
+     * @see #setSettleDelay(int)
+     */
+    public void setInteractionDowngrade(boolean enabled) {
+        quality.setInteractionDowngrade(enabled);
+    }
+
+    public boolean isInteractionDowngrade() {
+        return quality.isInteractionDowngrade();
+    }
+
+    /**
+     * @param milliseconds how long the image must be still before it is considered settled: full quality
+     *                     is restored and {@link OnSettledListener#onSettled(TransformSnapshot)} is called,
+     *                     150 by default
+     * @throws IllegalArgumentException if the delay is negative
+     */
+    public void setSettleDelay(int milliseconds) {
+        attacher.setSettleDelay(milliseconds);
+    }
+
+    public int getSettleDelay() {
+        return attacher.getSettleDelay();
+    }
+
+    /**
+     * @return {@link #INTERACTION_DRAGGING} or {@link #INTERACTION_SCALING} while the user moves the image,
+     * {@link #INTERACTION_FLINGING} or {@link #INTERACTION_ANIMATING} while it moves by itself,
+     * {@link #INTERACTION_IDLE} otherwise
+     */
+    public int getInteractionState() {
+        return attacher.getInteractionState();
+    }
+
+    /**
+     * Register a callback to be invoked when the interaction state changes.
+     *
+     * @see #getInteractionState()
+     */
+    public void setOnInteractionStateChangedListener(OnInteractionStateChangedListener listener) {
+        interactionStateListener = listener;
+    }
+
+    /**
+     * Register a callback to be invoked once the image has been idle and its matrix unchanged for the settle
+     * delay, after gestures and animations as well as programmatic changes. Heavy work that depends on the
+     * visible part of the image should start there rather than on each matrix change.
+     *
+     * @see #setSettleDelay(int)
+     */
+    public void setOnSettledListener(OnSettledListener listener) {
+        settledListener = listener;
+    }
+
+    /**
+     * Shows drags and pinches by transforming the last drawn frame through the scale and translation
+     * properties of the View, instead of drawing again at each touch event, which lowers the latency.
+     * The image matrix is applied for real when the gesture ends. Steps that would reveal parts of the
+     * image that haven't been drawn are drawn normally: when the parent clips its children, this is the
+     * case of most pans, so this mode works best inside a container that doesn't clip its children, but
+     * is clipped itself to the bounds of this view. The mode is suspended while the View properties are
+     * animated by someone else. It is never used while this view has a background or a foreground, which
+     * would be transformed with the image, nor when it crops to its padding inside a container that doesn't clip.
+     *
+     * @param enabled {@code true} to enable, disabled by default
+     */
+    public void setRenderPropertyTransform(boolean enabled) {
+        attacher.setRenderPropertyTransform(enabled);
+    }
+
+    public boolean isRenderPropertyTransform() {
+        return attacher.isRenderPropertyTransform();
+    }
+
+    /**
+     * Lowers the touch latency: from Android 11, touch events are dispatched as soon as they arrive instead of
+     * once per frame, and on every version drags and pinches follow the finger position extrapolated to the time
+     * the frame will be displayed, from all the samples batched in each event. The prediction is corrected when
+     * the finger is lifted.
+     *
+     * @param enabled {@code true} to enable, disabled by default
+     * @see #getMeanPredictionError()
+     */
+    public void setLowLatencyInput(boolean enabled) {
+        attacher.setLowLatencyInput(enabled);
+    }
+
+    public boolean isLowLatencyInput() {
+        return attacher.isLowLatencyInput();
+    }
+
+    /**
+     * @return the mean distance between the predicted finger positions and the actual ones, in pixels
+     * @see #setLowLatencyInput(boolean)
+     */
+    public float getMeanPredictionError() {
+        return attacher.getMeanPredictionError();
+    }
+
+    /**
+     * @return the largest distance between a predicted finger position and the actual one, in pixels
+     */
+    public float getMaxPredictionError() {
+        return attacher.getMaxPredictionError();
+    }
+
+    public void resetPredictionError() {
+        attacher.resetPredictionError();
+    }
+
+    /**
+     * @return the mean time spent processing a touch event by the drag and pinch detector, including
+     * the matrix updates it triggers, in nanoseconds
+     */
+    public long getAverageTouchEventNanos() {
+        return attacher.getAverageTouchEventNanos();
+    }
+
+    /**
+     * @return the longest time spent processing a touch event by the drag and pinch detector, in nanoseconds
+     */
+    public long getMaxTouchEventNanos() {
+        return attacher.getMaxTouchEventNanos();
+    }
+
+    public void resetTouchEventStats() {
+        attacher.resetTouchEventStats();
+    }
+
+    /**
+     * Stretches the displayed levels while drawing, through a color filter: the bitmap isn't modified,
+     * so changing the stretch costs nothing per pixel on the CPU, and live frames set afterwards are
+     * stretched the same way. Applies to tiled and region images too. Replaces the color filter set with
+     * {@link #setColorFilter(android.graphics.ColorFilter)}.
+     * <p>
+     * A color filter can only apply linear functions, so a gamma other than 1 is approximated by a straight
+     * line through the black point: the black level is kept, but the white level isn't. Above 1, the line is
+     * steeper and the brightest levels saturate before the white level, by up to a third of the range; below
+     * 1, the white level is displayed as gray, e.g. three quarters of full white at gamma 0.5. The mid-tones
+     * follow the gamma only roughly. Use gamma 1 when the white level matters.
+     *
+     * @param black  the input level displayed as black, between 0 and 1
+     * @param white  the input level displayed as white, between 0 and 1
+     * @param gamma  1 for a linear stretch, above 1 to brighten the faint parts
+     * @param invert {@code true} to display a negative
+     * @throws IllegalArgumentException if the levels are not ordered or the gamma is not positive
+     * @see #clearDisplayStretch()
+     */
+    public void setDisplayStretch(float black, float white, float gamma, boolean invert) {
+        setColorFilter(StretchFilter.create(black, white, gamma, invert));
+    }
+
+    /**
+     * Removes the display stretch, or any other color filter.
+     */
+    public void clearDisplayStretch() {
+        clearColorFilter();
+    }
+
+    /**
+     * Keeps Drawables that draw their shapes directly, such as ShapeDrawable, GradientDrawable, PictureDrawable
+     * or custom Drawables with a constant state, sharp and cheap to draw when zoomed in past their intrinsic size:
+     * once the image stops moving, the part visible on screen is rasterized in the background at the current
+     * scale, and shown until the image moves again. Memory use is bounded by the view size. Animated Drawables,
+     * other Drawables without a constant state and VectorDrawables are drawn as usual: a VectorDrawable renders
+     * through its own cache, capped at 2048 pixels for the whole image, so rasterizing it wouldn't make it
+     * any sharper.
+     *
+     * @param enabled {@code true} to enable, disabled by default
+     */
+    public void setVectorRasterization(boolean enabled) {
+        rasterizer.setEnabled(enabled);
+    }
+
+    public boolean isVectorRasterization() {
+        return rasterizer.isEnabled();
+    }
+
+    /**
+     * Draws a grid around the image pixels when zoomed in, and the value of each visible pixel when
+     * there's enough room to write it: one number for gray pixels, the red, green and blue values otherwise.
+     * Values are read from bitmaps only, region sources and other Drawables only get the grid.
+     * Values are the ones stored in the bitmap, before any display stretch.
+     *
+     * @param enabled {@code true} to enable, disabled by default
+     * @see #setPixelGridScale(float)
+     */
+    public void setPixelInspector(boolean enabled) {
+        inspector.setEnabled(enabled);
+    }
+
+    public boolean isPixelInspector() {
+        return inspector.isEnabled();
+    }
+
+    /**
+     * @param scale the number of screen pixels per image pixel from which the pixel grid is shown, 8 by default
+     * @throws IllegalArgumentException if the scale is below 1
+     */
+    public void setPixelGridScale(float scale) {
+        inspector.setGridScale(scale);
+    }
+
+    public float getPixelGridScale() {
+        return inspector.getGridScale();
+    }
+
+    /**
+     * Chooses the bitmap filtering from the number of screen pixels per bitmap pixel: nearest-neighbour
+     * above the nearest-neighbour threshold, to see the actual pixels without smearing, bilinear around 1:1,
+     * and mipmapped below the mipmap threshold, to avoid aliasing when zoomed out. Mipmaps are only enabled
+     * on the bitmaps decoded from a {@link RegionSource} or an {@link ImageSource}: the bitmaps set through
+     * {@link #setImageBitmap(Bitmap)} are never modified, call {@link Bitmap#setHasMipMap(boolean)} on them
+     * to get the same result.
+     *
+     * @param enabled {@code true} to enable, disabled by default
+     * @see #setSamplingThresholds(float, float)
+     */
+    public void setAutomaticSampling(boolean enabled) {
+        quality.setAutomaticSampling(enabled);
+    }
+
+    public boolean isAutomaticSampling() {
+        return quality.isAutomaticSampling();
+    }
+
+    /**
+     * Sets the thresholds of the automatic sampling, in screen pixels per bitmap pixel. The defaults are 2
+     * and 0.5.
+     *
+     * @param nearestAbove nearest-neighbour sampling is used above this ratio, at least 1
+     * @param mipmapBelow  mipmaps are used below this ratio, between 0 and 1
+     */
+    public void setSamplingThresholds(float nearestAbove, float mipmapBelow) {
+        quality.setThresholds(nearestAbove, mipmapBelow);
+    }
+
+    public float getNearestNeighbourThreshold() {
+        return quality.getNearestThreshold();
+    }
+
+    public float getMipMapThreshold() {
+        return quality.getMipmapThreshold();
+    }
+
+    /**
+     * @return {@code true} if a cheaper representation is being drawn because the image is moving
+     */
+    boolean isDrawingFast() {
+        return quality.isDrawingFast();
+    }
+
+    long getLastDrawTime() {
+        return lastDrawTime;
+    }
+
+    boolean isOnScreen() {
+        return isAttachedToWindow() && isShown() && getGlobalVisibleRect(screenRect);
+    }
+
+    /**
+     * @return the number of bytes held by the bitmaps of this view
+     */
+    long getBitmapByteCount() {
+        if (sourceRenderer != null) return sourceRenderer.getByteCount();
+        if (oversizeRenderer != null) return oversizeRenderer.getByteCount();
+        Drawable drawable = getDrawable();
+        if (drawable instanceof BitmapDrawable) return SourceRenderer.byteCount(((BitmapDrawable) drawable).getBitmap());
+        return rasterizer.getByteCount();
+    }
+
+    /**
+     * Frees memory if the image can be restored later.
+     *
+     * @param keepPreview {@code true} to only drop the high-resolution data
+     */
+    void trimBitmapMemory(boolean keepPreview) {
+        if (sourceRenderer != null) sourceRenderer.trimMemory(keepPreview);
+        if (oversizeRenderer != null) oversizeRenderer.trimMemory(keepPreview);
+        // Made again when the view is drawn
+        rasterizer.clear();
     }
 
     @Override
@@ -171,6 +954,31 @@ public class PhotoView extends AppCompatImageView {
         return attacher.getDisplayRect();
     }
 
+    /**
+     * Gets the region of the image currently visible on screen, in Drawable coordinates.
+     *
+     * @param out target rectangle
+     * @return {@code false} if there is no image or no part of it is visible
+     */
+    public boolean getVisibleImageRect(RectF out) {
+        return attacher.getVisibleImageRect(out);
+    }
+
+    /**
+     * Gets the region of the image that will be visible at the end of the running fling or zoom animation,
+     * known as soon as it starts. Region and image sources use it to prefetch the destination.
+     *
+     * @param out target rectangle
+     * @return {@code false} if no fling or animation is running, or nothing will be visible
+     */
+    public boolean getPredictedVisibleImageRect(RectF out) {
+        return attacher.getPredictedVisibleImageRect(out);
+    }
+
+    boolean getPredictedDrawMatrix(Matrix out) {
+        return attacher.getPredictedDrawMatrix(out);
+    }
+
     public void getDisplayMatrix(Matrix matrix) {
         attacher.getDisplayMatrix(matrix);
     }
@@ -22,10 +22,13 @@ import android.graphics.Matrix;
 import android.graphics.Matrix.ScaleToFit;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.SystemClock;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnLongClickListener;
+import android.view.ViewGroup;
 import android.view.ViewParent;
 import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.Interpolator;
@@ -33,6 +36,9 @@ import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 import android.widget.OverScroller;
 
+import androidx.core.view.NestedScrollingChildHelper;
+import androidx.core.view.ViewCompat;
+
 /**
  * The component of {@link PhotoView} which does the work allowing for zooming, scaling, panning, etc.
  * It is made in case you need to subclass something other than AppCompatImageView and still
@@ -52,13 +58,31 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
     private static final float DEFAULT_MID_SCALE = 1.75f;
     private static final float DEFAULT_MIN_SCALE = 1.0f;
     private static final int DEFAULT_ZOOM_DURATION = 200;
+    private static final int DEFAULT_SETTLE_DELAY = 150;
     private static final int SINGLE_TOUCH = 1;
     // These are set so we don't keep allocating them on the heap
     private final Matrix baseMatrix = new Matrix();
     private final Matrix drawMatrix = new Matrix();
     private final Matrix suppMatrix = new Matrix();
+    private final Matrix inverseMatrix = new Matrix();
+    // Where the running fling or zoom animation will end, if any
+    private final Matrix predictedMatrix = new Matrix();
+    private boolean predicting = false;
+    // Render property transform mode
+    private final Matrix committedMatrix = new Matrix();
+    private final Matrix deltaMatrix = new Matrix();
+    private final RectF recordedRect = new RectF();
+    private final RectF neededRect = new RectF();
+    private final RectF viewRect = new RectF();
+    private boolean renderPropertyTransform = false;
+    private boolean touchGesture = false;
+    private boolean transformedByProperties = false;
+    // Set while the gesture detector runs, to display the matrix once per touch event
+    private boolean batchingTouchEvent = false;
+    private boolean matrixPending = false;
     private final RectF displayRect = new RectF();
     private final float[] matrixValues = new float[9];
+    private final float[] tapPoint = new float[2];
     private final ImageView imageView;
     private Interpolator interpolator = new AccelerateDecelerateInterpolator();
     private int zoomDuration = DEFAULT_ZOOM_DURATION;
@@ -67,9 +91,29 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
     private float maxScale = DEFAULT_MAX_SCALE;
     private boolean allowParentInterceptOnEdge = true;
     private boolean blockParentIntercept = false;
+    private final NestedScrollingChildHelper nestedScrollingHelper;
+    // The last value passed to requestDisallowInterceptTouchEvent, reset by the parent at each ACTION_DOWN
+    private boolean parentInterceptDisallowed = false;
     // Gesture Detectors
     private GestureDetector gestureDetector;
     private CustomGestureDetector scaleDragDetector;
+    // Settings of the detectors that haven't been created yet
+    private GestureDetector.OnDoubleTapListener doubleTapListener;
+    private boolean customDoubleTapListener = false;
+    private boolean lowLatencyInput = false;
+    // Incremented to stop the running zoom animations
+    private int zoomAnimation = 0;
+    private int runningZoomAnimations = 0;
+    // Interaction state, and the settle event posted once the state is idle and the matrix stops changing
+    private int interactionState = PhotoView.INTERACTION_IDLE;
+    private int settleDelay = DEFAULT_SETTLE_DELAY;
+    private final RectF settledRect = new RectF();
+    private final Runnable settleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchSettled();
+        }
+    };
     // Listeners
     private OnMatrixChangedListener matrixChangeListener;
     private OnPhotoTapListener photoTapListener;
@@ -80,11 +124,18 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
     private OnScaleChangedListener scaleChangeListener;
     private OnSingleFlingListener singleFlingListener;
     private OnViewDragListener onViewDragListener;
+    private OnInteractionStateChangedListener interactionStateListener;
+    private OnSettledListener settledListener;
 
     private FlingRunnable currentFlingRunnable;
     private int horizontalScrollEdge = HORIZONTAL_EDGE_BOTH;
     private int verticalScrollEdge = VERTICAL_EDGE_BOTH;
     private float baseRotation;
+    // Orientation of the image, applied by the base matrix
+    private final Matrix orientationMatrix = new Matrix();
+    private int orientation = 0;
+    private boolean flipHorizontal = false;
+    private boolean flipVertical = false;
 
     private boolean zoomEnabled = true;
     private ScaleType scaleType = ScaleType.FIT_CENTER;
@@ -98,6 +149,7 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
             if (onViewDragListener != null) {
                 onViewDragListener.onDrag(dx, dy);
             }
+            final float startX = getValue(suppMatrix, Matrix.MTRANS_X), startY = getValue(suppMatrix, Matrix.MTRANS_Y);
             suppMatrix.postTranslate(dx, dy);
             checkAndDisplayMatrix();
 
@@ -110,30 +162,39 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
              * on, and the direction of the scroll (i.e. if we're pulling against
              * the edge, aka 'overscrolling', let the parent take over).
              */
-            ViewParent parent = imageView.getParent();
-            if (allowParentInterceptOnEdge && !scaleDragDetector.isScaling() && !blockParentIntercept) {
-                if (horizontalScrollEdge == HORIZONTAL_EDGE_BOTH
-                        || (horizontalScrollEdge == HORIZONTAL_EDGE_LEFT && dx >= 1f)
-                        || (horizontalScrollEdge == HORIZONTAL_EDGE_RIGHT && dx <= -1f)
-                        || (verticalScrollEdge == VERTICAL_EDGE_TOP && dy >= 1f)
-                        || (verticalScrollEdge == VERTICAL_EDGE_BOTTOM && dy <= -1f)) {
-                    if (parent != null) {
-                        parent.requestDisallowInterceptTouchEvent(false);
-                    }
+            final boolean overscrolling = allowParentInterceptOnEdge && !scaleDragDetector.isScaling() &&
+                    !blockParentIntercept && (horizontalScrollEdge == HORIZONTAL_EDGE_BOTH
+                    || (horizontalScrollEdge == HORIZONTAL_EDGE_LEFT && dx >= 1f)
+                    || (horizontalScrollEdge == HORIZONTAL_EDGE_RIGHT && dx <= -1f)
+                    || (verticalScrollEdge == VERTICAL_EDGE_TOP && dy >= 1f)
+                    || (verticalScrollEdge == VERTICAL_EDGE_BOTTOM && dy <= -1f));
+            if (nestedScrollingHelper.hasNestedScrollingParent(ViewCompat.TYPE_TOUCH)) {
+                // A nested scrolling parent receives what the image couldn't take, and never needs to intercept
+                if (overscrolling) {
+                    final float consumedX = getValue(suppMatrix, Matrix.MTRANS_X) - startX,
+                            consumedY = getValue(suppMatrix, Matrix.MTRANS_Y) - startY;
+                    // Scroll deltas go the opposite way of the finger
+                    nestedScrollingHelper.dispatchNestedScroll(-Math.round(consumedX), -Math.round(consumedY),
+                            -Math.round(dx - consumedX), -Math.round(dy - consumedY), null, ViewCompat.TYPE_TOUCH);
                 }
             } else {
-                if (parent != null) {
-                    parent.requestDisallowInterceptTouchEvent(true);
-                }
+                setParentInterceptDisallowed(!overscrolling);
             }
         }
 
         @Override
         public void onFling(float startX, float startY, float velocityX, float velocityY) {
+            if (nestedScrollingHelper.dispatchNestedPreFling(velocityX, velocityY)) return;
             currentFlingRunnable = new FlingRunnable(imageView.getContext());
-            currentFlingRunnable.fling(getImageViewWidth(imageView),
+            final boolean moving = currentFlingRunnable.fling(getImageViewWidth(imageView),
                     getImageViewHeight(imageView), (int) velocityX, (int) velocityY);
-            imageView.post(currentFlingRunnable);
+            if (moving) {
+                imageView.post(currentFlingRunnable);
+            } else {
+                currentFlingRunnable = null;
+            }
+            // The parent may fling too when the image can't move
+            nestedScrollingHelper.dispatchNestedFling(velocityX, velocityY, moving);
         }
 
         @Override
@@ -155,14 +216,21 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
     };
 
     @SuppressLint("ClickableViewAccessibility")
-    PhotoViewAttacher(ImageView imageView) {
+    PhotoViewAttacher(ImageView imageView, NestedScrollingChildHelper nestedScrollingHelper) {
         this.imageView = imageView;
+        this.nestedScrollingHelper = nestedScrollingHelper;
         imageView.setOnTouchListener(this);
         imageView.addOnLayoutChangeListener(this);
         if (imageView.isInEditMode()) {
             return;
         }
         baseRotation = 0.0f;
+    }
+
+    /**
+     * The gesture detectors are only created when the view is first touched, which most thumbnails never are.
+     */
+    private void createGestureDetectors() {
         // Create Gesture Detectors...
         scaleDragDetector = new CustomGestureDetector(imageView.getContext(), onGestureListener);
         gestureDetector = new GestureDetector(imageView.getContext(), new GestureDetector.SimpleOnGestureListener() {
@@ -191,24 +259,33 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
                 return false;
             }
         });
+        scaleDragDetector.setLowLatency(lowLatencyInput);
+        if (customDoubleTapListener) {
+            gestureDetector.setOnDoubleTapListener(doubleTapListener);
+            doubleTapListener = null;
+            return;
+        }
         gestureDetector.setOnDoubleTapListener(new GestureDetector.OnDoubleTapListener() {
             @Override
             public boolean onSingleTapConfirmed(MotionEvent e) {
                 if (onClickListener != null) {
                     onClickListener.onClick(PhotoViewAttacher.this.imageView);
                 }
-                final RectF displayRect = getDisplayRect();
+                final Drawable drawable = imageView.getDrawable();
                 final float x = e.getX(), y = e.getY();
                 if (viewTapListener != null) {
                     viewTapListener.onViewTap(PhotoViewAttacher.this.imageView, x, y);
                 }
-                if (displayRect != null) {
+                if ((drawable != null) && (drawable.getIntrinsicWidth() > 0) && (drawable.getIntrinsicHeight() > 0) &&
+                        getDrawMatrix().invert(inverseMatrix)) {
+                    // Back to the coordinates of the Drawable, whatever its orientation
+                    tapPoint[0] = x;
+                    tapPoint[1] = y;
+                    inverseMatrix.mapPoints(tapPoint);
+                    final float xResult = tapPoint[0] / drawable.getIntrinsicWidth(),
+                            yResult = tapPoint[1] / drawable.getIntrinsicHeight();
                     // Check to see if the user tapped on the photo
-                    if (displayRect.contains(x, y)) {
-                        float xResult = (x - displayRect.left)
-                                / displayRect.width();
-                        float yResult = (y - displayRect.top)
-                                / displayRect.height();
+                    if ((xResult >= 0f) && (xResult <= 1f) && (yResult >= 0f) && (yResult <= 1f)) {
                         if (photoTapListener != null) {
                             photoTapListener.onPhotoTap(PhotoViewAttacher.this.imageView, xResult, yResult);
                         }
@@ -260,7 +337,13 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
     }
 
     void setOnDoubleTapListener(GestureDetector.OnDoubleTapListener newOnDoubleTapListener) {
-        this.gestureDetector.setOnDoubleTapListener(newOnDoubleTapListener);
+        if (gestureDetector != null) {
+            this.gestureDetector.setOnDoubleTapListener(newOnDoubleTapListener);
+        } else {
+            // Kept until the detectors are created
+            doubleTapListener = newOnDoubleTapListener;
+            customDoubleTapListener = true;
+        }
     }
 
     void setOnScaleChangeListener(OnScaleChangedListener onScaleChangeListener) {
@@ -295,6 +378,29 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         checkAndDisplayMatrix();
     }
 
+    /**
+     * @param degrees a multiple of 90 degrees, clockwise
+     */
+    void setOrientation(int degrees, boolean flipHorizontal, boolean flipVertical) {
+        if (degrees % 90 != 0) throw new IllegalArgumentException("Orientation must be a multiple of 90 degrees");
+        orientation = ((degrees % 360) + 360) % 360;
+        this.flipHorizontal = flipHorizontal;
+        this.flipVertical = flipVertical;
+        update();
+    }
+
+    int getOrientation() {
+        return orientation;
+    }
+
+    boolean isFlippedHorizontally() {
+        return flipHorizontal;
+    }
+
+    boolean isFlippedVertically() {
+        return flipVertical;
+    }
+
     void setRotationTo(float degrees) {
         suppMatrix.setRotate(degrees % 360);
         checkAndDisplayMatrix();
@@ -369,17 +475,22 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
     public boolean onTouch(View v, MotionEvent ev) {
         boolean handled = false;
         if (zoomEnabled && ((ImageView) v).getDrawable() != null) {
+            if (scaleDragDetector == null) createGestureDetectors();
             switch (ev.getAction()) {
                 case MotionEvent.ACTION_DOWN:
-                    ViewParent parent = v.getParent();
                     // First, disable the Parent from intercepting the touch
                     // event
-                    if (parent != null) {
-                        parent.requestDisallowInterceptTouchEvent(true);
-                    }
+                    parentInterceptDisallowed = false;
+                    setParentInterceptDisallowed(true);
+                    nestedScrollingHelper.startNestedScroll(
+                            ViewCompat.SCROLL_AXIS_HORIZONTAL | ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH);
                     // If we're flinging, and the user presses down, cancel
                     // fling
                     cancelFling();
+                    touchGesture = true;
+                    // Receive the samples as soon as they arrive instead of once per frame, where available
+                    if (lowLatencyInput && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R))
+                        v.requestUnbufferedDispatch(ev);
                     break;
                 case MotionEvent.ACTION_CANCEL:
                 case MotionEvent.ACTION_UP:
@@ -402,24 +513,62 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
                     }
                     break;
             }
+            // While the View is moved through its render properties, the event comes in the transformed
+            // coordinates of the View: map it back to the untransformed View, where the image matrix applies,
+            // otherwise each step would cancel out the next one
+            final MotionEvent event;
+            if (transformedByProperties) {
+                event = MotionEvent.obtain(ev);
+                event.transform(imageView.getMatrix());
+            } else {
+                event = ev;
+            }
             // Try the Scale/Drag detector
             if (scaleDragDetector != null) {
                 boolean wasScaling = scaleDragDetector.isScaling();
                 boolean wasDragging = scaleDragDetector.isDragging();
-                handled = scaleDragDetector.onTouchEvent(ev);
+                // The drags and pinches of a batch of samples are displayed at once
+                batchingTouchEvent = true;
+                handled = scaleDragDetector.onTouchEvent(event);
+                batchingTouchEvent = false;
+                if (matrixPending) {
+                    matrixPending = false;
+                    setImageViewMatrix(getDrawMatrix());
+                }
                 boolean didntScale = !wasScaling && !scaleDragDetector.isScaling();
                 boolean didntDrag = !wasDragging && !scaleDragDetector.isDragging();
                 blockParentIntercept = didntScale && didntDrag;
             }
             // Check to see if the user double tapped
-            if (gestureDetector != null && gestureDetector.onTouchEvent(ev)) {
+            if (gestureDetector != null && gestureDetector.onTouchEvent(event)) {
                 handled = true;
             }
-
+            if (event != ev) event.recycle();
+            if ((ev.getAction() == MotionEvent.ACTION_UP) || (ev.getAction() == MotionEvent.ACTION_CANCEL)) {
+                // Only now, since the detector offers the fling to the parent on ACTION_UP
+                nestedScrollingHelper.stopNestedScroll(ViewCompat.TYPE_TOUCH);
+                touchGesture = false;
+                // Fold the render properties back into the image matrix
+                if (transformedByProperties) setImageViewMatrix(getDrawMatrix());
+            }
+            updateInteractionState();
         }
         return handled;
     }
 
+    /**
+     * Calls {@link ViewParent#requestDisallowInterceptTouchEvent(boolean)} only when the value changes,
+     * since it walks up the whole hierarchy.
+     */
+    private void setParentInterceptDisallowed(boolean disallow) {
+        if (disallow == parentInterceptDisallowed) return;
+        parentInterceptDisallowed = disallow;
+        ViewParent parent = imageView.getParent();
+        if (parent != null) {
+            parent.requestDisallowInterceptTouchEvent(disallow);
+        }
+    }
+
     void setAllowParentInterceptOnEdge(boolean allow) {
         allowParentInterceptOnEdge = allow;
     }
@@ -532,6 +681,122 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         return drawMatrix;
     }
 
+    /**
+     * @return the matrix the ImageView draws with, which lags behind the image matrix while a gesture
+     * is shown through render properties
+     */
+    Matrix getDrawnMatrix() {
+        return committedMatrix;
+    }
+
+    /**
+     * Computes the part of the Drawable currently visible on screen, in Drawable coordinates.
+     *
+     * @param out target rectangle, clipped to the Drawable bounds
+     * @return {@code false} if there is no Drawable or nothing is visible
+     */
+    boolean getVisibleImageRect(RectF out) {
+        return getVisibleImageRect(getDrawMatrix(), out);
+    }
+
+    /**
+     * Computes the part of the Drawable that will be visible at the end of the running fling or zoom animation.
+     *
+     * @param out target rectangle, clipped to the Drawable bounds
+     * @return {@code false} if no fling or animation is running, or nothing will be visible
+     */
+    boolean getPredictedVisibleImageRect(RectF out) {
+        return predicting && getVisibleImageRect(predictedMatrix, out);
+    }
+
+    /**
+     * @param out set to the draw matrix at the end of the running fling or zoom animation
+     * @return {@code false} if no fling or animation is running
+     */
+    boolean getPredictedDrawMatrix(Matrix out) {
+        if (!predicting) return false;
+        out.set(predictedMatrix);
+        return true;
+    }
+
+    /**
+     * @return {@code true} while the user is dragging or scaling, or a fling or zoom animation is running
+     */
+    boolean isInteracting() {
+        return interactionState != PhotoView.INTERACTION_IDLE;
+    }
+
+    private boolean getVisibleImageRect(Matrix matrix, RectF out) {
+        Drawable d = imageView.getDrawable();
+        if (d == null || !matrix.invert(inverseMatrix)) {
+            return false;
+        }
+        out.set(0, 0, getImageViewWidth(imageView), getImageViewHeight(imageView));
+        inverseMatrix.mapRect(out);
+        return out.intersect(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
+    }
+
+    /**
+     * @return one of the {@code PhotoView.INTERACTION_*} constants
+     */
+    int getInteractionState() {
+        return interactionState;
+    }
+
+    void setOnInteractionStateChangedListener(OnInteractionStateChangedListener listener) {
+        interactionStateListener = listener;
+    }
+
+    void setOnSettledListener(OnSettledListener listener) {
+        settledListener = listener;
+    }
+
+    int getSettleDelay() {
+        return settleDelay;
+    }
+
+    void setSettleDelay(int milliseconds) {
+        if (milliseconds < 0) throw new IllegalArgumentException("The settle delay can't be negative");
+        settleDelay = milliseconds;
+    }
+
+    /**
+     * Computes the state from the touch gesture, the fling and the zoom animations. The gesture wins over
+     * the animations it doesn't stop, and the drag state of the detector only counts while a finger is down.
+     */
+    private void updateInteractionState() {
+        final int state;
+        if (touchGesture && (scaleDragDetector != null) && scaleDragDetector.isScaling()) {
+            state = PhotoView.INTERACTION_SCALING;
+        } else if (touchGesture && (scaleDragDetector != null) && scaleDragDetector.isDragging()) {
+            state = PhotoView.INTERACTION_DRAGGING;
+        } else if (currentFlingRunnable != null) {
+            state = PhotoView.INTERACTION_FLINGING;
+        } else if (runningZoomAnimations > 0) {
+            state = PhotoView.INTERACTION_ANIMATING;
+        } else {
+            state = PhotoView.INTERACTION_IDLE;
+        }
+        if (state == interactionState) return;
+        final int oldState = interactionState;
+        interactionState = state;
+        imageView.removeCallbacks(settleRunnable);
+        if (state == PhotoView.INTERACTION_IDLE) imageView.postDelayed(settleRunnable, settleDelay);
+        if (interactionStateListener != null) {
+            interactionStateListener.onInteractionStateChanged(oldState, state);
+        }
+    }
+
+    private void dispatchSettled() {
+        final Drawable d = imageView.getDrawable();
+        if ((interactionState != PhotoView.INTERACTION_IDLE) || (settledListener == null) || (d == null)) return;
+        final Matrix matrix = getDrawMatrix();
+        if (!getVisibleImageRect(matrix, settledRect)) settledRect.setEmpty();
+        final RectF displayRect = getDisplayRect(matrix);
+        settledListener.onSettled(new TransformSnapshot(matrix, displayRect, settledRect, getScale(),
+                SystemClock.uptimeMillis()));
+    }
+
     void setZoomTransitionDuration(int milliseconds) {
         this.zoomDuration = milliseconds;
     }
@@ -558,8 +823,76 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         checkMatrixBounds();
     }
 
+    void setRenderPropertyTransform(boolean enabled) {
+        renderPropertyTransform = enabled;
+        if (!enabled && transformedByProperties) setImageViewMatrix(getDrawMatrix());
+    }
+
+    boolean isRenderPropertyTransform() {
+        return renderPropertyTransform;
+    }
+
+    void setLowLatencyInput(boolean enabled) {
+        lowLatencyInput = enabled;
+        if (scaleDragDetector != null) scaleDragDetector.setLowLatency(enabled);
+    }
+
+    boolean isLowLatencyInput() {
+        return lowLatencyInput;
+    }
+
+    float getMeanPredictionError() {
+        return (scaleDragDetector == null) ? 0f : scaleDragDetector.getMeanPredictionError();
+    }
+
+    float getMaxPredictionError() {
+        return (scaleDragDetector == null) ? 0f : scaleDragDetector.getMaxPredictionError();
+    }
+
+    void resetPredictionError() {
+        if (scaleDragDetector != null) scaleDragDetector.resetPredictionError();
+    }
+
+    long getAverageTouchEventNanos() {
+        return (scaleDragDetector == null) ? 0 : scaleDragDetector.getAverageEventNanos();
+    }
+
+    long getMaxTouchEventNanos() {
+        return (scaleDragDetector == null) ? 0 : scaleDragDetector.getMaxEventNanos();
+    }
+
+    void resetTouchEventStats() {
+        if (scaleDragDetector != null) scaleDragDetector.resetEventStats();
+    }
+
+    /**
+     * Stops the running animations and returns to the initial zoom and rotation, keeping the detectors,
+     * the listeners and the settings, so that the view can be reused for another image.
+     */
+    void reset() {
+        cancelFling();
+        zoomAnimation++;
+        runningZoomAnimations = 0;
+        predicting = false;
+        touchGesture = false;
+        updateInteractionState();
+        baseRotation = 0.0f;
+        orientation = 0;
+        flipHorizontal = flipVertical = false;
+        update();
+    }
+
     private void setImageViewMatrix(Matrix matrix) {
-        imageView.setImageMatrix(matrix);
+        if (!renderPropertyTransform || !touchGesture || !applyAsRenderProperties(matrix)) {
+            clearRenderProperties();
+            imageView.setImageMatrix(matrix);
+            committedMatrix.set(matrix);
+        }
+        if (interactionState == PhotoView.INTERACTION_IDLE) {
+            // Programmatic changes settle too, once they stop
+            imageView.removeCallbacks(settleRunnable);
+            imageView.postDelayed(settleRunnable, settleDelay);
+        }
         // Call MatrixChangedListener if needed
         if (matrixChangeListener != null) {
             RectF displayRect = getDisplayRect(matrix);
@@ -569,12 +902,95 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         }
     }
 
+    /**
+     * Shows the given matrix by transforming what the View drew with the last committed matrix, through its scale
+     * and translation properties, which doesn't re-record the View. This is only possible if the View draws exactly
+     * the same as it would after re-recording: the transformed content must cover everything that should be
+     * visible, and must not show anything outside the View.
+     *
+     * @return {@code false} if the matrix must be committed to the ImageView instead
+     */
+    private boolean applyAsRenderProperties(Matrix matrix) {
+        if (!transformedByProperties && ((imageView.getTranslationX() != 0f) || (imageView.getTranslationY() != 0f) ||
+                (imageView.getScaleX() != 1f) || (imageView.getScaleY() != 1f) || (imageView.getRotation() != 0f) ||
+                (imageView.getRotationX() != 0f) || (imageView.getRotationY() != 0f))) {
+            // Don't interfere with animations of the View
+            return false;
+        }
+        // The background and the foreground would be scaled and moved with the content
+        if ((imageView.getBackground() != null) ||
+                ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) && (imageView.getForeground() != null)))
+            return false;
+        if (!committedMatrix.invert(deltaMatrix)) return false;
+        deltaMatrix.postConcat(matrix);
+        deltaMatrix.getValues(matrixValues);
+        if ((Math.abs(matrixValues[Matrix.MSKEW_X]) > 1e-4f) || (Math.abs(matrixValues[Matrix.MSKEW_Y]) > 1e-4f) ||
+                (matrixValues[Matrix.MPERSP_0] != 0f) || (matrixValues[Matrix.MPERSP_1] != 0f)) return false;
+        final float scaleX = matrixValues[Matrix.MSCALE_X], scaleY = matrixValues[Matrix.MSCALE_Y],
+                translateX = matrixValues[Matrix.MTRANS_X], translateY = matrixValues[Matrix.MTRANS_Y];
+        if ((scaleX <= 0f) || (scaleY <= 0f)) return false;
+        final ViewParent parent = imageView.getParent();
+        final boolean clipped = !(parent instanceof ViewGroup) || ((ViewGroup) parent).getClipChildren();
+        // The padding clip would move with the content, while it stays in place after re-recording
+        if (!clipped && imageView.getCropToPadding()) return false;
+        if (clipped) {
+            // The View content is clipped to its bounds, which move with the render properties
+            final int paddingLeft = imageView.getPaddingLeft(), paddingTop = imageView.getPaddingTop();
+            if (imageView.getCropToPadding()) {
+                viewRect.set(0, 0, getImageViewWidth(imageView), getImageViewHeight(imageView));
+            } else {
+                viewRect.set(-paddingLeft, -paddingTop,
+                        imageView.getWidth() - paddingLeft, imageView.getHeight() - paddingTop);
+            }
+            final RectF committedRect = getDisplayRect(committedMatrix);
+            if ((committedRect == null) || !recordedRect.setIntersect(committedRect, viewRect)) return false;
+            deltaMatrix.mapRect(recordedRect);
+            final RectF rect = getDisplayRect(matrix);
+            if ((rect != null) && neededRect.setIntersect(rect, viewRect) && !contains(recordedRect, neededRect))
+                return false;
+            if (parent instanceof ViewGroup) {
+                // What goes past the View bounds must be hidden by the parent
+                final ViewGroup group = (ViewGroup) parent;
+                neededRect.set(-imageView.getLeft() - paddingLeft, -imageView.getTop() - paddingTop,
+                        group.getWidth() - imageView.getLeft() - paddingLeft, group.getHeight() - imageView.getTop() - paddingTop);
+                if (neededRect.intersect(recordedRect) && !contains(viewRect, neededRect)) return false;
+            }
+        }
+        // The whole image has been recorded, the View overflows its bounds as it would after re-recording
+        imageView.setScaleX(scaleX);
+        imageView.setScaleY(scaleY);
+        imageView.setTranslationX(translateX + (1f - scaleX) * (imageView.getPaddingLeft() - imageView.getPivotX()));
+        imageView.setTranslationY(translateY + (1f - scaleY) * (imageView.getPaddingTop() - imageView.getPivotY()));
+        transformedByProperties = true;
+        return true;
+    }
+
+    private static boolean contains(RectF outer, RectF inner) {
+        // Half a pixel of tolerance for rounding
+        return (outer.left <= inner.left + 0.5f) && (outer.top <= inner.top + 0.5f) &&
+                (outer.right >= inner.right - 0.5f) && (outer.bottom >= inner.bottom - 0.5f);
+    }
+
+    private void clearRenderProperties() {
+        if (transformedByProperties) {
+            imageView.setScaleX(1f);
+            imageView.setScaleY(1f);
+            imageView.setTranslationX(0f);
+            imageView.setTranslationY(0f);
+            transformedByProperties = false;
+        }
+    }
+
     /**
      * Helper method that simply checks the Matrix, and then displays the result
      */
     private void checkAndDisplayMatrix() {
         if (checkMatrixBounds()) {
-            setImageViewMatrix(getDrawMatrix());
+            if (batchingTouchEvent) {
+                matrixPending = true;
+            } else {
+                setImageViewMatrix(getDrawMatrix());
+            }
         }
     }
 
@@ -605,8 +1021,12 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         if (drawable == null) return;
         final float viewWidth = getImageViewWidth(imageView);
         final float viewHeight = getImageViewHeight(imageView);
-        final int drawableWidth = drawable.getIntrinsicWidth();
-        final int drawableHeight = drawable.getIntrinsicHeight();
+        final int intrinsicWidth = drawable.getIntrinsicWidth();
+        final int intrinsicHeight = drawable.getIntrinsicHeight();
+        // The size of the image once oriented
+        final boolean transposed = orientation % 180 != 0;
+        final int drawableWidth = transposed ? intrinsicHeight : intrinsicWidth;
+        final int drawableHeight = transposed ? intrinsicWidth : intrinsicHeight;
         baseMatrix.reset();
         final float widthScale = viewWidth / drawableWidth;
         final float heightScale = viewHeight / drawableHeight;
@@ -649,6 +1069,12 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
                     break;
             }
         }
+        // Orient the image first, around its center, so that it fills the rectangle the scale type expects
+        orientationMatrix.setTranslate(-intrinsicWidth / 2F, -intrinsicHeight / 2F);
+        orientationMatrix.postRotate(orientation);
+        orientationMatrix.postScale(flipHorizontal ? -1f : 1f, flipVertical ? -1f : 1f);
+        orientationMatrix.postTranslate(drawableWidth / 2F, drawableHeight / 2F);
+        baseMatrix.preConcat(orientationMatrix);
         resetMatrix();
     }
 
@@ -710,6 +1136,31 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         return true;
     }
 
+    /**
+     * Sets the predicted end of a fling or animation, moved back within the bounds the same way
+     * {@link #checkMatrixBounds()} will do.
+     */
+    private void setPrediction(Matrix matrix) {
+        predictedMatrix.set(matrix);
+        final RectF rect = getDisplayRect(predictedMatrix);
+        if (rect == null) return;
+        predictedMatrix.postTranslate(boundsDelta(rect.left, rect.right, getImageViewWidth(imageView)),
+                boundsDelta(rect.top, rect.bottom, getImageViewHeight(imageView)));
+        predicting = true;
+        // Let the renderers prefetch the destination
+        imageView.invalidate();
+    }
+
+    /**
+     * Images smaller than the view are centered: their alignment doesn't matter, since they are entirely visible.
+     */
+    private static float boundsDelta(float start, float end, int viewSize) {
+        if (end - start <= viewSize) return (viewSize - (end - start)) / 2 - start;
+        if (start > 0) return -start;
+        if (end < viewSize) return viewSize - end;
+        return 0;
+    }
+
     private int getImageViewWidth(ImageView imageView) {
         return imageView.getWidth() - imageView.getPaddingLeft() - imageView.getPaddingRight();
     }
@@ -722,6 +1173,8 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         if (currentFlingRunnable != null) {
             currentFlingRunnable.cancelFling();
             currentFlingRunnable = null;
+            predicting = false;
+            updateInteractionState();
         }
     }
 
@@ -730,6 +1183,7 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
         private final float mFocalX, mFocalY;
         private final long mStartTime;
         private final float mZoomStart, mZoomEnd;
+        private final int mAnimation = zoomAnimation;
 
         AnimatedZoomRunnable(final float currentZoom, final float targetZoom,
                              final float focalX, final float focalY) {
@@ -738,10 +1192,17 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
             mStartTime = System.currentTimeMillis();
             mZoomStart = currentZoom;
             mZoomEnd = targetZoom;
+            final Matrix end = new Matrix(getDrawMatrix());
+            end.postScale(targetZoom / currentZoom, targetZoom / currentZoom, focalX, focalY);
+            setPrediction(end);
+            runningZoomAnimations++;
+            updateInteractionState();
         }
 
         @Override
         public void run() {
+            // Stopped by reset(), which already cleared the count
+            if (mAnimation != zoomAnimation) return;
             float t = interpolate();
             float scale = mZoomStart + t * (mZoomEnd - mZoomStart);
             float deltaScale = scale / getScale();
@@ -749,6 +1210,10 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
             // We haven't hit our target scale yet, so post ourselves again
             if (t < 1f) {
                 imageView.postOnAnimation(this);
+            } else {
+                predicting = false;
+                runningZoomAnimations--;
+                updateInteractionState();
             }
         }
 
@@ -773,11 +1238,14 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
             mScroller.forceFinished(true);
         }
 
-        void fling(int viewWidth, int viewHeight, int velocityX,
-                   int velocityY) {
+        /**
+         * @return {@code false} if the image can't move
+         */
+        boolean fling(int viewWidth, int viewHeight, int velocityX,
+                      int velocityY) {
             final RectF rect = getDisplayRect();
             if (rect == null) {
-                return;
+                return false;
             }
             final int startX = Math.round(-rect.left);
             final int minX, maxX, minY, maxY;
@@ -800,13 +1268,20 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
             if (startX != maxX || startY != maxY) {
                 mScroller.fling(startX, startY, velocityX, velocityY, minX,
                         maxX, minY, maxY, 0, 0);
+                final Matrix end = new Matrix(getDrawMatrix());
+                end.postTranslate(startX - mScroller.getFinalX(), startY - mScroller.getFinalY());
+                setPrediction(end);
+                return true;
             }
+            return false;
         }
 
         @Override
         public void run() {
             if (mScroller.isFinished()) {
-                return; // remaining post that should not be handled
+                // Remaining post that should not be handled, or the last step already reached the end
+                finish();
+                return;
             }
             if (mScroller.computeScrollOffset()) {
                 final int newX = mScroller.getCurrX();
@@ -817,6 +1292,16 @@ class PhotoViewAttacher implements View.OnTouchListener, View.OnLayoutChangeList
                 mCurrentY = newY;
                 // Post On animation
                 imageView.postOnAnimation(this);
+            } else {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (currentFlingRunnable == this) {
+                currentFlingRunnable = null;
+                predicting = false;
+                updateInteractionState();
             }
         }
     }
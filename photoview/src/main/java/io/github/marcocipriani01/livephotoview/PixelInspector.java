@@ -0,0 +1,201 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+/**
+ * Draws a grid around the pixels of the image when zoomed in, and their values when the cells are large
+ * enough to hold them: one number for gray pixels, the three channels otherwise. Only the visible cells
+ * are computed, the visible pixels are read at once, and the value strings are made only once.
+ */
+class PixelInspector {
+
+    /**
+     * The grid is shown from this number of screen pixels per image pixel.
+     */
+    static final float DEFAULT_GRID_SCALE = 8f;
+    private static final float TEXT_SIZE = 10f;
+    // Shared by all the views, filled on first use
+    private static final String[] VALUES = new String[256];
+
+    private final PhotoView photoView;
+    private final Paint gridPaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float lineHeight;
+    private final float textOffset;
+    private final float valueScale;
+    // These are set so we don't keep allocating them on the heap
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF visibleRect = new RectF();
+    private final float[] matrixValues = new float[9];
+    private float[] lines = new float[0];
+    private float[] centers = new float[0];
+    private int[] pixels = new int[0];
+    private boolean enabled = false;
+    private float gridScale = DEFAULT_GRID_SCALE;
+
+    PixelInspector(PhotoView photoView) {
+        this.photoView = photoView;
+        final float density = photoView.getResources().getDisplayMetrics().density;
+        gridPaint.setStyle(Paint.Style.STROKE);
+        // Hairlines: one screen pixel wide at any zoom level
+        gridPaint.setStrokeWidth(0f);
+        gridPaint.setColor(0x80808080);
+        textPaint.setTextSize(TEXT_SIZE * density);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        lineHeight = textPaint.getTextSize() * 1.1f;
+        textOffset = -(textPaint.ascent() + textPaint.descent()) / 2f;
+        // Three lines of three digits, with some margin
+        valueScale = 4f * lineHeight;
+    }
+
+    private static String valueOf(int value) {
+        String string = VALUES[value];
+        if (string == null) {
+            string = Integer.toString(value);
+            VALUES[value] = string;
+        }
+        return string;
+    }
+
+    private static boolean isReadable(Bitmap bitmap) {
+        return (bitmap != null) && !bitmap.isRecycled() &&
+                ((Build.VERSION.SDK_INT < Build.VERSION_CODES.O) || (bitmap.getConfig() != Bitmap.Config.HARDWARE));
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        photoView.invalidate();
+    }
+
+    float getGridScale() {
+        return gridScale;
+    }
+
+    void setGridScale(float scale) {
+        if (scale < 1f) throw new IllegalArgumentException("The grid scale must be at least 1");
+        gridScale = scale;
+        photoView.invalidate();
+    }
+
+    /**
+     * @param drawMatrix the matrix that maps the Drawable to the View content area
+     */
+    void draw(Canvas canvas, Drawable drawable, Matrix drawMatrix) {
+        if (!enabled || (drawable == null)) return;
+        final Rect bounds = drawable.getBounds();
+        if (bounds.isEmpty()) return;
+        // Pixels of the bitmap if there's one, units of the Drawable otherwise
+        final Bitmap bitmap = (drawable instanceof BitmapDrawable) ? ((BitmapDrawable) drawable).getBitmap() : null;
+        final int columns = (bitmap != null) ? bitmap.getWidth() : bounds.width(),
+                rows = (bitmap != null) ? bitmap.getHeight() : bounds.height();
+        final float cellWidth = (float) bounds.width() / columns, cellHeight = (float) bounds.height() / rows;
+        drawMatrix.getValues(matrixValues);
+        final float scale = (float) Math.hypot(matrixValues[Matrix.MSCALE_X], matrixValues[Matrix.MSKEW_Y]) * cellWidth;
+        if ((scale < gridScale) || !drawMatrix.invert(inverseMatrix)) return;
+        final int paddingLeft = photoView.getPaddingLeft(), paddingTop = photoView.getPaddingTop(),
+                contentWidth = photoView.getWidth() - paddingLeft - photoView.getPaddingRight(),
+                contentHeight = photoView.getHeight() - paddingTop - photoView.getPaddingBottom();
+        visibleRect.set(0, 0, contentWidth, contentHeight);
+        inverseMatrix.mapRect(visibleRect);
+        final int firstX = Math.max(0, (int) Math.floor((visibleRect.left - bounds.left) / cellWidth)),
+                lastX = Math.min(columns, (int) Math.ceil((visibleRect.right - bounds.left) / cellWidth)),
+                firstY = Math.max(0, (int) Math.floor((visibleRect.top - bounds.top) / cellHeight)),
+                lastY = Math.min(rows, (int) Math.ceil((visibleRect.bottom - bounds.top) / cellHeight));
+        if ((firstX >= lastX) || (firstY >= lastY)) return;
+
+        final int saveCount = canvas.save();
+        canvas.clipRect(paddingLeft, paddingTop, paddingLeft + contentWidth, paddingTop + contentHeight);
+        canvas.translate(paddingLeft, paddingTop);
+        drawGrid(canvas, drawMatrix, bounds, cellWidth, cellHeight, firstX, lastX, firstY, lastY);
+        if ((scale >= valueScale) && isReadable(bitmap))
+            drawValues(canvas, drawMatrix, bitmap, bounds, cellWidth, cellHeight, firstX, lastX, firstY, lastY);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void drawGrid(Canvas canvas, Matrix drawMatrix, Rect bounds, float cellWidth, float cellHeight,
+                          int firstX, int lastX, int firstY, int lastY) {
+        final int count = 4 * ((lastX - firstX + 1) + (lastY - firstY + 1));
+        if (lines.length < count) lines = new float[count];
+        final float top = bounds.top + firstY * cellHeight, bottom = bounds.top + lastY * cellHeight,
+                left = bounds.left + firstX * cellWidth, right = bounds.left + lastX * cellWidth;
+        int i = 0;
+        for (int x = firstX; x <= lastX; x++) {
+            final float lineX = bounds.left + x * cellWidth;
+            lines[i++] = lineX;
+            lines[i++] = top;
+            lines[i++] = lineX;
+            lines[i++] = bottom;
+        }
+        for (int y = firstY; y <= lastY; y++) {
+            final float lineY = bounds.top + y * cellHeight;
+            lines[i++] = left;
+            lines[i++] = lineY;
+            lines[i++] = right;
+            lines[i++] = lineY;
+        }
+        final int saveCount = canvas.save();
+        canvas.concat(drawMatrix);
+        canvas.drawLines(lines, 0, count, gridPaint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void drawValues(Canvas canvas, Matrix drawMatrix, Bitmap bitmap, Rect bounds, float cellWidth,
+                            float cellHeight, int firstX, int lastX, int firstY, int lastY) {
+        final int width = lastX - firstX, height = lastY - firstY, count = width * height;
+        if (pixels.length < count) pixels = new int[count];
+        if (centers.length < 2 * count) centers = new float[2 * count];
+        bitmap.getPixels(pixels, 0, width, firstX, firstY, width, height);
+        // Cell centers on screen, computed at once
+        int i = 0;
+        for (int y = firstY; y < lastY; y++) {
+            final float centerY = bounds.top + (y + 0.5f) * cellHeight;
+            for (int x = firstX; x < lastX; x++) {
+                centers[i++] = bounds.left + (x + 0.5f) * cellWidth;
+                centers[i++] = centerY;
+            }
+        }
+        drawMatrix.mapPoints(centers, 0, centers, 0, count);
+        for (int p = 0; p < count; p++) {
+            final int color = pixels[p];
+            final int red = Color.red(color), green = Color.green(color), blue = Color.blue(color);
+            final float x = centers[2 * p], y = centers[2 * p + 1] + textOffset;
+            // Readable over the pixel
+            textPaint.setColor(((red * 299 + green * 587 + blue * 114) >= 128000) ? Color.BLACK : Color.WHITE);
+            if ((red == green) && (green == blue)) {
+                canvas.drawText(valueOf(red), x, y, textPaint);
+            } else {
+                canvas.drawText(valueOf(red), x, y - lineHeight, textPaint);
+                canvas.drawText(valueOf(green), x, y, textPaint);
+                canvas.drawText(valueOf(blue), x, y + lineHeight, textPaint);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * An image that can be decoded one region at a time, used by {@link PhotoView#setRegionSource(RegionSource)}
+ * to display images too large to be decoded at once. Only the regions visible on screen are decoded,
+ * at the resolution required by the current zoom level.
+ */
+public interface RegionSource {
+
+    /**
+     * @return the full-resolution width of the image
+     */
+    int getWidth();
+
+    /**
+     * @return the full-resolution height of the image
+     */
+    int getHeight();
+
+    /**
+     * Decodes a region of the image. Called on a background thread, possibly from several threads at once.
+     *
+     * @param region     the region to decode, in full-resolution pixels, always within the image bounds
+     * @param sampleSize subsampling factor, a power of 2. The returned bitmap should be
+     *                   {@code region.width() / sampleSize} by {@code region.height() / sampleSize} pixels, rounded up
+     * @return the decoded region, or {@code null} if it could not be decoded
+     */
+    Bitmap decodeRegion(Rect region, int sampleSize);
+}
@@ -0,0 +1,148 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * A Drawable with the size of the final image, drawing a placeholder or a partially loaded frame
+ * stretched over it, or nothing. Set in a {@link PhotoView} before the actual image, it lets the view
+ * compute its zoom and position once: they are kept when the actual image, with the same size, replaces it.
+ * Progressive frames can also be shown by changing the wrapped Drawable.
+ */
+@SuppressWarnings("unused")
+public class SizedDrawable extends Drawable implements Drawable.Callback {
+
+    private final int width;
+    private final int height;
+    private Drawable drawable;
+    // Pushed by the ImageView, applied to each wrapped Drawable
+    private int alpha = 255;
+    private boolean alphaSet = false;
+    private ColorFilter colorFilter;
+    private boolean colorFilterSet = false;
+
+    /**
+     * Creates an empty Drawable.
+     *
+     * @param width  the width of the final image, in pixels
+     * @param height the height of the final image, in pixels
+     */
+    public SizedDrawable(int width, int height) {
+        this(null, width, height);
+    }
+
+    /**
+     * @param drawable the placeholder, stretched to the size of the final image, or {@code null}
+     * @param width    the width of the final image, in pixels
+     * @param height   the height of the final image, in pixels
+     */
+    public SizedDrawable(Drawable drawable, int width, int height) {
+        if ((width <= 0) || (height <= 0)) throw new IllegalArgumentException("Invalid image size");
+        this.width = width;
+        this.height = height;
+        setDrawable(drawable);
+    }
+
+    public Drawable getDrawable() {
+        return drawable;
+    }
+
+    /**
+     * Replaces the placeholder, e.g. with a more complete frame of a progressive image. The Drawable is
+     * mutated, so that the alpha and color filter of the view don't leak to the other users of its resource.
+     */
+    public void setDrawable(Drawable drawable) {
+        if (this.drawable != null) this.drawable.setCallback(null);
+        if (drawable != null) drawable = drawable.mutate();
+        this.drawable = drawable;
+        if (drawable != null) {
+            drawable.setCallback(this);
+            drawable.setBounds(getBounds());
+            if (alphaSet) drawable.setAlpha(alpha);
+            if (colorFilterSet) drawable.setColorFilter(colorFilter);
+        }
+        invalidateSelf();
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        if (drawable != null) drawable.setBounds(bounds);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (drawable != null) drawable.draw(canvas);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return width;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return height;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        this.alpha = alpha;
+        alphaSet = true;
+        if (drawable != null) drawable.setAlpha(alpha);
+    }
+
+    @Override
+    public int getAlpha() {
+        return alpha;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        this.colorFilter = colorFilter;
+        colorFilterSet = true;
+        if (drawable != null) drawable.setColorFilter(colorFilter);
+    }
+
+    @Override
+    public ColorFilter getColorFilter() {
+        return colorFilter;
+    }
+
+    @Override
+    public int getOpacity() {
+        return (drawable == null) ? PixelFormat.TRANSPARENT : drawable.getOpacity();
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        unscheduleSelf(what);
+    }
+}
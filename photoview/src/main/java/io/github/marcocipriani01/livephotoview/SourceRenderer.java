@@ -0,0 +1,144 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+
+import java.util.concurrent.Future;
+
+/**
+ * Base class for the components that load an image progressively into a {@link PhotoView}:
+ * the view shows a {@link SizedBitmapDrawable} with the full-resolution size of the image, and the
+ * renderer improves what is drawn as the resolution required by the current matrix becomes available.
+ */
+abstract class SourceRenderer {
+
+    final PhotoView photoView;
+    final SizedBitmapDrawable drawable;
+    // These are set so we don't keep allocating them on the heap
+    private final float[] matrixValues = new float[9];
+    volatile boolean released = false;
+    // Set when the bitmaps are dropped to free memory, nothing is decoded again until the view is back on screen
+    boolean evicted = false;
+
+    SourceRenderer(PhotoView photoView, int width, int height) {
+        this.photoView = photoView;
+        drawable = new SizedBitmapDrawable(width, height, null);
+    }
+
+    /**
+     * @param scale screen pixels per image pixel
+     * @return the largest power of 2 subsampling that doesn't lose resolution at the given scale
+     */
+    static int sampleSizeFor(float scale) {
+        int sampleSize = 1;
+        while ((scale > 0) && (sampleSize * 2 * scale <= 1f)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    static long byteCount(Bitmap bitmap) {
+        return (bitmap == null) ? 0 : bitmap.getAllocationByteCount();
+    }
+
+    SizedBitmapDrawable getDrawable() {
+        return drawable;
+    }
+
+    int getContentWidth() {
+        return photoView.getWidth() - photoView.getPaddingLeft() - photoView.getPaddingRight();
+    }
+
+    int getContentHeight() {
+        return photoView.getHeight() - photoView.getPaddingTop() - photoView.getPaddingBottom();
+    }
+
+    /**
+     * Queues a decode on the {@link DecodeScheduler}, with the priority of the view.
+     */
+    Future<?> schedule(Runnable task) {
+        return DecodeScheduler.getInstance().submit(photoView, task);
+    }
+
+    /**
+     * @return {@code false} if decodes must not be requested, because the renderer has been evicted and the
+     * view is not on screen yet
+     */
+    boolean canRequest() {
+        if (evicted && photoView.isOnScreen()) evicted = false;
+        return !evicted;
+    }
+
+    /**
+     * Called on the main thread when a decoded bitmap has been accepted.
+     */
+    void onBitmapLoaded() {
+        BitmapMemoryBudget.getInstance().requestCheck();
+    }
+
+    /**
+     * @return the number of screen pixels per image pixel with the given matrix
+     */
+    float getScale(Matrix drawMatrix) {
+        drawMatrix.getValues(matrixValues);
+        return (float) Math.hypot(matrixValues[Matrix.MSCALE_X], matrixValues[Matrix.MSKEW_Y]);
+    }
+
+    /**
+     * Starts loading, once the Drawable has been set on the view.
+     */
+    abstract void start();
+
+    /**
+     * Stops all the pending work, the renderer is not used anymore.
+     */
+    abstract void release();
+
+    /**
+     * Cancels the decodes that haven't completed yet, e.g. because the view left the window.
+     * Whatever is still missing is requested again on the next draw.
+     */
+    abstract void cancelPending();
+
+    /**
+     * @return the number of bytes held by the decoded bitmaps
+     */
+    abstract long getByteCount();
+
+    /**
+     * Drops decoded bitmaps to free memory. They are decoded again once the view is back on screen.
+     *
+     * @param keepPreview {@code true} to only drop the data above the lowest resolution
+     */
+    abstract void trimMemory(boolean keepPreview);
+
+    /**
+     * Called when the image settles, after a gesture or animation.
+     */
+    void onSettled() {
+    }
+
+    /**
+     * Called after the view has drawn the Drawable.
+     *
+     * @param canvas     the View canvas
+     * @param drawMatrix the matrix that maps the Drawable to the View content area
+     */
+    abstract void draw(Canvas canvas, Matrix drawMatrix);
+}
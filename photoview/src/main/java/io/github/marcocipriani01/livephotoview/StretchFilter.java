@@ -0,0 +1,60 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+
+/**
+ * Builds the color filter of a display stretch: levels, gamma and invert applied while drawing,
+ * without touching the pixels of the bitmap. A color matrix can only apply linear functions, so the
+ * gamma curve is replaced by its least-squares line through the black point, which stays black.
+ * A per-channel lookup table would need RuntimeShader, from API 33, above the compile SDK of the library.
+ */
+final class StretchFilter {
+
+    private StretchFilter() {
+    }
+
+    /**
+     * @param black  the input level mapped to black, between 0 and 1
+     * @param white  the input level mapped to white, between 0 and 1
+     * @param gamma  the gamma, 1 for a linear stretch, above 1 to brighten the shadows
+     * @param invert {@code true} to invert the output
+     */
+    static ColorMatrixColorFilter create(float black, float white, float gamma, boolean invert) {
+        if ((black < 0f) || (white > 1f) || (white <= black))
+            throw new IllegalArgumentException("Levels must satisfy 0 <= black < white <= 1");
+        if (!(gamma > 0f) || Float.isInfinite(gamma))
+            throw new IllegalArgumentException("Gamma must be positive");
+        // Least-squares fit of f(t) = t^(1/gamma) with a * t over [0, 1], anchored at the black point
+        // so that the background of a stretched image stays black: a = integral of t * f / integral of t^2
+        final double a = 3.0 * gamma / (2.0 * gamma + 1.0);
+        // t = (v / 255 - black) / (white - black), output = 255 * a * t
+        float scale = (float) (a / (white - black)),
+                offset = (float) (-255.0 * a * black / (white - black));
+        if (invert) {
+            scale = -scale;
+            offset = 255f - offset;
+        }
+        return new ColorMatrixColorFilter(new ColorMatrix(new float[]{
+                scale, 0, 0, 0, offset,
+                0, scale, 0, 0, offset,
+                0, 0, scale, 0, offset,
+                0, 0, 0, 1, 0
+        }));
+    }
+}
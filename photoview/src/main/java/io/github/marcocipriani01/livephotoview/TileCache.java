@@ -0,0 +1,277 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache of the tiles decoded from {@link CacheableRegionSource}s, shared by all the {@link PhotoView} instances.
+ * The memory tier is an LRU bounded in bytes, keyed by source, subsampling level and tile position.
+ * The optional disk tier stores the tiles as PNG files in the app cache directory, so that they survive
+ * the source being closed and opened again.
+ */
+@SuppressWarnings("unused")
+public final class TileCache {
+
+    private static final String DIRECTORY = "photoview-tiles";
+    private static TileCache instance;
+
+    private final LruCache<Key, Bitmap> memoryCache;
+    private final ExecutorService diskWriter = Executors.newSingleThreadExecutor();
+    private volatile File diskDirectory;
+    private long diskMaxBytes;
+    private long diskBytes = -1;
+
+    private TileCache() {
+        memoryCache = new LruCache<Key, Bitmap>((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8)) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    public static synchronized TileCache getInstance() {
+        if (instance == null) instance = new TileCache();
+        return instance;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Sets the size of the memory tier. The default is an eighth of the maximum heap size.
+     *
+     * @param bytes the maximum size, in bytes
+     */
+    public void setMemoryCacheSize(int bytes) {
+        if (bytes <= 0) throw new IllegalArgumentException("The cache size must be positive");
+        memoryCache.resize(bytes);
+    }
+
+    /**
+     * Enables the disk tier, in a subdirectory of the app cache directory.
+     *
+     * @param context  any context of the app
+     * @param maxBytes the maximum size of the cache on disk, 0 to disable the disk tier
+     */
+    public synchronized void setDiskCacheSize(Context context, long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("The cache size can't be negative");
+        diskMaxBytes = maxBytes;
+        if (maxBytes == 0) {
+            diskDirectory = null;
+        } else {
+            diskDirectory = new File(context.getCacheDir(), DIRECTORY);
+            diskBytes = -1;
+        }
+    }
+
+    /**
+     * Empties the memory tier and deletes the disk tier.
+     */
+    public void clear() {
+        memoryCache.evictAll();
+        diskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                File directory = diskDirectory;
+                if (directory == null) return;
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                }
+                synchronized (TileCache.this) {
+                    diskBytes = 0;
+                }
+            }
+        });
+    }
+
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Looks for a tile in memory, can be called on any thread.
+     */
+    Bitmap getFromMemory(Key key) {
+        return memoryCache.get(key);
+    }
+
+    /**
+     * Drops a tile from the memory tier, keeping it on disk: used when the memory budget evicts the tiles
+     * of a view, which would otherwise stay in memory through the cache.
+     */
+    void removeFromMemory(Key key) {
+        memoryCache.remove(key);
+    }
+
+    /**
+     * Looks for a tile on disk, adding it to the memory tier if found. Must not be called on the main thread.
+     */
+    Bitmap getFromDisk(Key key) {
+        File file = fileFor(key);
+        if ((file == null) || !file.isFile()) return null;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), null);
+        if (bitmap != null) {
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            memoryCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Stores a decoded tile in memory, and on disk in the background.
+     */
+    void put(final Key key, final Bitmap bitmap) {
+        memoryCache.put(key, bitmap);
+        if (diskDirectory != null) {
+            diskWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(key, bitmap);
+                }
+            });
+        }
+    }
+
+    private File fileFor(Key key) {
+        File directory = diskDirectory;
+        if (directory == null) return null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(key.source.getBytes("UTF-8"));
+            return new File(directory, toHex(digest.digest()) + "_" + key.sampleSize + "_" + key.tileX + "_" + key.tileY + ".png");
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return null;
+        }
+    }
+
+    private void write(Key key, Bitmap bitmap) {
+        File file = fileFor(key);
+        if ((file == null) || file.isFile()) return;
+        File directory = file.getParentFile();
+        if ((directory == null) || (!directory.isDirectory() && !directory.mkdirs())) return;
+        File temp = new File(directory, file.getName() + ".tmp");
+        boolean written = false;
+        try (OutputStream stream = new FileOutputStream(temp)) {
+            // Lossless, tiles may come from scientific data
+            written = bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        } catch (IOException ignored) {
+        }
+        if (!written || !temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (diskBytes < 0) diskBytes = directorySize(directory);
+            else diskBytes += file.length();
+            if (diskBytes > diskMaxBytes) trimDisk(directory);
+        }
+    }
+
+    private static long directorySize(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier is back to 3/4 of its size.
+     */
+    private void trimDisk(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        long target = diskMaxBytes * 3 / 4;
+        for (File file : files) {
+            if (diskBytes <= target) break;
+            long length = file.length();
+            if (file.delete()) diskBytes -= length;
+        }
+    }
+
+    static final class Key {
+
+        final String source;
+        final int sampleSize;
+        final int tileX;
+        final int tileY;
+
+        Key(String source, int sampleSize, int tileX, int tileY) {
+            this.source = source;
+            this.sampleSize = sampleSize;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return (sampleSize == key.sampleSize) && (tileX == key.tileX) && (tileY == key.tileY) &&
+                    source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = source.hashCode();
+            result = 31 * result + sampleSize;
+            result = 31 * result + tileX;
+            return 31 * result + tileY;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+
+/**
+ * Draws a {@link RegionSource} over a {@link PhotoView}: a low-resolution preview of the whole image
+ * is shown as the Drawable, and the regions visible on screen are decoded as tiles at the resolution
+ * required by the current zoom level. Everything but the decoding runs on the main thread.
+ * Tiles of {@link CacheableRegionSource}s go through the shared {@link TileCache}.
+ */
+class TileRenderer extends SourceRenderer {
+
+    private static final int TILE_SIZE = 512;
+    private static final int PREVIEW_SIZE = 1024;
+
+    private final RegionSource source;
+    private final int previewSampleSize;
+    private final HashMap<Long, Tile> tiles = new HashMap<>();
+    // These are set so we don't keep allocating them on the heap
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF visibleRect = new RectF();
+    private final Matrix predictedMatrix = new Matrix();
+    private final RectF predictedRect = new RectF();
+    private Future<?> previewFuture;
+    private TileCache.Key previewKey;
+    // Incremented by reload(), to discard the previews decoded from the previous pixels
+    private int previewGeneration = 0;
+
+    TileRenderer(PhotoView photoView, RegionSource source) {
+        super(photoView, source.getWidth(), source.getHeight());
+        this.source = source;
+        int sampleSize = 1, size = Math.max(source.getWidth(), source.getHeight());
+        while (size / sampleSize > PREVIEW_SIZE) {
+            sampleSize *= 2;
+        }
+        previewSampleSize = sampleSize;
+    }
+
+    private static long tileKey(int sampleSize, int tileX, int tileY) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 48) | ((long) tileY << 24) | tileX;
+    }
+
+    RegionSource getSource() {
+        return source;
+    }
+
+    /**
+     * Starts decoding the preview of the whole image.
+     */
+    @Override
+    void start() {
+        requestPreview();
+    }
+
+    private void requestPreview() {
+        final TileCache.Key key = cacheKey(previewSampleSize, -1, -1);
+        previewKey = key;
+        final Bitmap cached = (key == null) ? null : TileCache.getInstance().getFromMemory(key);
+        if (cached != null) {
+            drawable.setBitmap(cached);
+            onBitmapLoaded();
+            return;
+        }
+        final Rect all = new Rect(0, 0, source.getWidth(), source.getHeight());
+        final int generation = previewGeneration;
+        previewFuture = schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (released) return;
+                final Bitmap preview = load(key, all, previewSampleSize);
+                photoView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (released || (previewFuture == null) || (generation != previewGeneration)) return;
+                        if (preview == null) {
+                            // Requested again on the next draw
+                            previewFuture = null;
+                            return;
+                        }
+                        drawable.setBitmap(preview);
+                        onBitmapLoaded();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Decodes the preview and the tiles again, after the pixels of the source changed without changing
+     * its size. What's on screen stays until it's replaced, so nothing flickers.
+     */
+    void reload() {
+        if (released) return;
+        previewGeneration++;
+        if (previewFuture != null) {
+            previewFuture.cancel(false);
+            previewFuture = null;
+        }
+        requestPreview();
+        for (Tile tile : new ArrayList<>(tiles.values())) {
+            tile.cancel();
+            final Tile fresh = new Tile(tile.key, tile.cacheKey, tile.sampleSize, tile.region.left, tile.region.top,
+                    tile.region.right, tile.region.bottom);
+            fresh.bitmap = tile.bitmap;
+            tiles.put(tile.key, fresh);
+            schedule(fresh);
+        }
+        photoView.invalidate();
+    }
+
+    @Override
+    void release() {
+        released = true;
+        if (previewFuture != null) previewFuture.cancel(false);
+        for (Tile tile : tiles.values()) {
+            tile.cancel();
+        }
+        tiles.clear();
+    }
+
+    @Override
+    long getByteCount() {
+        long bytes = byteCount(drawable.getBitmap());
+        // An oversize bitmap is held by its source, and can't be freed
+        if (source instanceof BitmapRegionSource) bytes += byteCount(((BitmapRegionSource) source).getBitmap());
+        for (Tile tile : tiles.values()) {
+            bytes += byteCount(tile.bitmap);
+        }
+        return bytes;
+    }
+
+    /**
+     * Also drops the trimmed bitmaps from the memory tier of the {@link TileCache}, otherwise they wouldn't be freed.
+     */
+    @Override
+    void trimMemory(boolean keepPreview) {
+        final TileCache cache = TileCache.getInstance();
+        for (Tile tile : tiles.values()) {
+            tile.cancel();
+            if ((tile.bitmap != null) && (tile.cacheKey != null)) cache.removeFromMemory(tile.cacheKey);
+        }
+        tiles.clear();
+        if (!keepPreview) {
+            if (previewFuture != null) {
+                previewFuture.cancel(false);
+                previewFuture = null;
+            }
+            if ((drawable.getBitmap() != null) && (previewKey != null)) cache.removeFromMemory(previewKey);
+            drawable.setBitmap(null);
+        }
+        evicted = true;
+        photoView.invalidate();
+    }
+
+    @Override
+    void cancelPending() {
+        if ((previewFuture != null) && (drawable.getBitmap() == null)) {
+            previewFuture.cancel(false);
+            previewFuture = null;
+        }
+        Iterator<Tile> iterator = tiles.values().iterator();
+        while (iterator.hasNext()) {
+            Tile tile = iterator.next();
+            if (tile.bitmap == null) {
+                tile.cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles visible with the given matrix, scheduling the missing ones.
+     */
+    @Override
+    void draw(Canvas canvas, Matrix drawMatrix) {
+        if (released || !canRequest()) return;
+        if ((previewFuture == null) && (drawable.getBitmap() == null)) requestPreview();
+        final int viewWidth = getContentWidth(), viewHeight = getContentHeight();
+        if ((viewWidth <= 0) || (viewHeight <= 0) || !drawMatrix.invert(inverseMatrix)) return;
+        // The canvas is already translated by the scroll, unlike the content
+        final int scrollX = photoView.getScrollX(), scrollY = photoView.getScrollY();
+        visibleRect.set(scrollX, scrollY, scrollX + viewWidth, scrollY + viewHeight);
+        inverseMatrix.mapRect(visibleRect);
+        if (!visibleRect.intersect(0, 0, source.getWidth(), source.getHeight())) return;
+        final int sampleSize = sampleSizeFor(getScale(drawMatrix));
+        // The preview already has enough resolution above its own sample size
+        final boolean complete;
+        if (photoView.isDrawingFast()) {
+            // Don't decode finer tiles while the image moves, only the next coarser level, and keep what's there
+            if (sampleSize * 2 < previewSampleSize) requestTiles(visibleRect, sampleSize * 2);
+            complete = false;
+        } else {
+            complete = (sampleSize >= previewSampleSize) || requestTiles(visibleRect, sampleSize);
+        }
+        // Fetch where the running fling or zoom will end, after the tiles on screen
+        int predictedSampleSize = 0;
+        if (photoView.getPredictedDrawMatrix(predictedMatrix) && predictedMatrix.invert(inverseMatrix)) {
+            predictedRect.set(scrollX, scrollY, scrollX + viewWidth, scrollY + viewHeight);
+            inverseMatrix.mapRect(predictedRect);
+            predictedSampleSize = sampleSizeFor(getScale(predictedMatrix));
+            if ((predictedSampleSize < previewSampleSize) &&
+                    predictedRect.intersect(0, 0, source.getWidth(), source.getHeight())) {
+                requestTiles(predictedRect, predictedSampleSize);
+            } else {
+                predictedSampleSize = 0;
+            }
+        }
+        evictTiles(visibleRect, sampleSize, complete, predictedSampleSize);
+        if (sampleSize >= previewSampleSize) return;
+
+        int saveCount = canvas.save();
+        if (photoView.getCropToPadding()) {
+            canvas.clipRect(scrollX + photoView.getPaddingLeft(), scrollY + photoView.getPaddingTop(),
+                    scrollX + photoView.getWidth() - photoView.getPaddingRight(),
+                    scrollY + photoView.getHeight() - photoView.getPaddingBottom());
+        }
+        canvas.translate(photoView.getPaddingLeft(), photoView.getPaddingTop());
+        canvas.concat(drawMatrix);
+        // Coarser tiles first, so that they are covered as soon as the finer ones arrive
+        for (Tile tile : tiles.values()) {
+            if ((tile.sampleSize > sampleSize) && (tile.bitmap != null))
+                canvas.drawBitmap(tile.bitmap, null, tile.bounds, drawable.getPaint());
+        }
+        for (Tile tile : tiles.values()) {
+            if ((tile.sampleSize <= sampleSize) && (tile.bitmap != null))
+                canvas.drawBitmap(tile.bitmap, null, tile.bounds, drawable.getPaint());
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * @return {@code true} if all the tiles covering the visible rectangle are available
+     */
+    private boolean requestTiles(RectF visible, int sampleSize) {
+        final int span = TILE_SIZE * sampleSize;
+        final int firstX = (int) (visible.left / span), lastX = (int) Math.ceil(visible.right / span) - 1,
+                firstY = (int) (visible.top / span), lastY = (int) Math.ceil(visible.bottom / span) - 1;
+        boolean complete = true;
+        for (int tileY = firstY; tileY <= lastY; tileY++) {
+            for (int tileX = firstX; tileX <= lastX; tileX++) {
+                long key = tileKey(sampleSize, tileX, tileY);
+                Tile tile = tiles.get(key);
+                if (tile == null) {
+                    tile = new Tile(key, cacheKey(sampleSize, tileX, tileY), sampleSize, tileX * span, tileY * span,
+                            Math.min(source.getWidth(), (tileX + 1) * span),
+                            Math.min(source.getHeight(), (tileY + 1) * span));
+                    tiles.put(key, tile);
+                    tile.bitmap = (tile.cacheKey == null) ? null : TileCache.getInstance().getFromMemory(tile.cacheKey);
+                    if (tile.bitmap == null) schedule(tile);
+                }
+                if (tile.bitmap == null) complete = false;
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * @param predictedSampleSize the sample size of the tiles prefetched in {@link #predictedRect}, 0 if none
+     */
+    private void evictTiles(RectF visible, int sampleSize, boolean complete, int predictedSampleSize) {
+        Iterator<Tile> iterator = tiles.values().iterator();
+        while (iterator.hasNext()) {
+            Tile tile = iterator.next();
+            if ((tile.sampleSize == predictedSampleSize) && tile.bounds.intersects(predictedRect.left,
+                    predictedRect.top, predictedRect.right, predictedRect.bottom)) continue;
+            if (!tile.bounds.intersects(visible.left, visible.top, visible.right, visible.bottom) ||
+                    ((tile.sampleSize != sampleSize) && complete)) {
+                tile.cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void schedule(final Tile tile) {
+        tile.future = schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (released || tile.cancelled) return;
+                final Bitmap bitmap = load(tile.cacheKey, tile.region, tile.sampleSize);
+                photoView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (released || (tiles.get(tile.key) != tile)) return;
+                        tile.bitmap = bitmap;
+                        photoView.invalidate();
+                        onBitmapLoaded();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read at each request: the key of a source changes with its rendering settings.
+     */
+    private String sourceKey() {
+        return (source instanceof CacheableRegionSource) ? ((CacheableRegionSource) source).getCacheKey() : null;
+    }
+
+    private TileCache.Key cacheKey(int sampleSize, int tileX, int tileY) {
+        final String sourceKey = sourceKey();
+        return (sourceKey == null) ? null : new TileCache.Key(sourceKey, sampleSize, tileX, tileY);
+    }
+
+    private Bitmap load(TileCache.Key key, Rect region, int sampleSize) {
+        if (key == null) return decode(region, sampleSize);
+        final TileCache cache = TileCache.getInstance();
+        Bitmap bitmap = cache.getFromMemory(key);
+        if (bitmap == null) bitmap = cache.getFromDisk(key);
+        if (bitmap == null) {
+            bitmap = decode(region, sampleSize);
+            // Not if the settings changed in the meantime: the pixels may not match the key
+            if ((bitmap != null) && key.source.equals(sourceKey())) cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decode(Rect region, int sampleSize) {
+        try {
+            return source.decodeRegion(region, sampleSize);
+        } catch (RuntimeException e) {
+            // A failed region is simply not drawn, the preview stays visible
+            return null;
+        }
+    }
+
+    private static class Tile {
+
+        final long key;
+        final TileCache.Key cacheKey;
+        final int sampleSize;
+        final Rect region;
+        final RectF bounds;
+        volatile boolean cancelled = false;
+        Future<?> future;
+        Bitmap bitmap;
+
+        Tile(long key, TileCache.Key cacheKey, int sampleSize, int left, int top, int right, int bottom) {
+            this.key = key;
+            this.cacheKey = cacheKey;
+            this.sampleSize = sampleSize;
+            region = new Rect(left, top, right, bottom);
+            bounds = new RectF(left, top, right, bottom);
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) future.cancel(false);
+        }
+    }
+}
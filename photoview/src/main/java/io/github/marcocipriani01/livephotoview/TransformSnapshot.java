@@ -0,0 +1,75 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * An immutable copy of the transform of a {@link PhotoView}, taken when the image settles.
+ * The getters return copies, so the snapshot can be handed over to other threads.
+ */
+public final class TransformSnapshot {
+
+    private final Matrix matrix;
+    private final RectF displayRect;
+    private final RectF visibleRect;
+    private final float scale;
+    private final long time;
+
+    TransformSnapshot(Matrix matrix, RectF displayRect, RectF visibleRect, float scale, long time) {
+        this.matrix = new Matrix(matrix);
+        this.displayRect = new RectF(displayRect);
+        this.visibleRect = new RectF(visibleRect);
+        this.scale = scale;
+        this.time = time;
+    }
+
+    /**
+     * @return the matrix that maps the Drawable to the content area of the view
+     */
+    public Matrix getMatrix() {
+        return new Matrix(matrix);
+    }
+
+    /**
+     * @return the bounds of the Drawable on screen, relative to the content area of the view
+     */
+    public RectF getDisplayRect() {
+        return new RectF(displayRect);
+    }
+
+    /**
+     * @return the part of the Drawable visible on screen, in Drawable coordinates, empty if nothing is visible
+     */
+    public RectF getVisibleRect() {
+        return new RectF(visibleRect);
+    }
+
+    /**
+     * @return the zoom level, as returned by {@link PhotoView#getScale()}
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return when the image settled, in the {@link android.os.SystemClock#uptimeMillis()} time base
+     */
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.PictureDrawable;
+import android.graphics.drawable.VectorDrawable;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import java.util.concurrent.Future;
+
+/**
+ * Keeps Drawables that draw their shapes directly sharp when zoomed in: once the image stops moving, the
+ * part visible on screen is rasterized in the background, from a copy of the Drawable, at the current scale.
+ * The result is drawn instead of the Drawable for as long as the image doesn't move, so memory stays
+ * proportional to the view size whatever the zoom. Any Drawable that isn't a bitmap and can be copied
+ * through its constant state is handled, animated ones excluded. PictureDrawable has no constant state,
+ * but its Picture can't change once recorded, so the copy is made from the Picture.
+ * <p>
+ * VectorDrawable is excluded too: it always renders its whole image into its own cache, sized from the
+ * canvas scale but capped at 2048 pixels, whichever canvas it's drawn on. A raster made from it would be
+ * no sharper than the Drawable itself, and would cost a full-image cache on top of the raster.
+ */
+class VectorRasterizer {
+
+    private final PhotoView photoView;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // These are set so we don't keep allocating them on the heap
+    private final float[] matrixValues = new float[9];
+    private final RectF visibleRect = new RectF();
+    private final Matrix lastMatrix = new Matrix();
+    // The raster and the matrix it was made for, offset by its position in the content area
+    private final Matrix rasterMatrix = new Matrix();
+    private Bitmap raster;
+    private int rasterLeft, rasterTop;
+    private Drawable drawable;
+    private Future<?> pending;
+    private int generation = 0;
+    private boolean enabled = false;
+    private final Runnable rasterizeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            rasterize();
+        }
+    };
+
+    VectorRasterizer(PhotoView photoView) {
+        this.photoView = photoView;
+    }
+
+    static boolean isRasterizable(Drawable drawable) {
+        return (drawable != null) && !(drawable instanceof BitmapDrawable) && !(drawable instanceof SizedBitmapDrawable) &&
+                !(drawable instanceof Animatable) && !isCachedVector(drawable) && ((drawable.getConstantState() != null) || (drawable instanceof PictureDrawable)) &&
+                (drawable.getIntrinsicWidth() > 0) && (drawable.getIntrinsicHeight() > 0);
+    }
+
+    /**
+     * @return a copy of the Drawable that can be drawn on another thread, or {@code null}
+     */
+    private static Drawable copyOf(Drawable drawable, PhotoView photoView) {
+        if (drawable instanceof PictureDrawable) {
+            final PictureDrawable picture = (PictureDrawable) drawable;
+            return (picture.getPicture() == null) ? null : new PictureDrawable(picture.getPicture());
+        }
+        final Drawable.ConstantState state = drawable.getConstantState();
+        return (state == null) ? null : state.newDrawable(photoView.getResources()).mutate();
+    }
+
+    /**
+     * The AndroidX port, used by AppCompat before API 24, caches the same way as the platform class.
+     * It's matched by name since the library doesn't depend on it.
+     */
+    private static boolean isCachedVector(Drawable drawable) {
+        return (drawable instanceof VectorDrawable) ||
+                drawable.getClass().getName().equals("androidx.vectordrawable.graphics.drawable.VectorDrawableCompat");
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) clear();
+        photoView.invalidate();
+    }
+
+    long getByteCount() {
+        return SourceRenderer.byteCount(raster);
+    }
+
+    /**
+     * Drops the raster and any pending rasterization.
+     */
+    void clear() {
+        photoView.removeCallbacks(rasterizeRunnable);
+        cancel();
+        raster = null;
+        drawable = null;
+    }
+
+    private void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Rasterizes the Drawable at the matrix the image settled at, called when the image settles.
+     */
+    void onSettled() {
+        if (drawable != null) rasterize();
+    }
+
+    /**
+     * Draws the raster if it matches the matrix. A new one is made when the image settles, or right away
+     * for a new Drawable shown while the image is still.
+     *
+     * @return {@code true} if the raster covers the content area, and the Drawable must not be drawn
+     */
+    boolean draw(Canvas canvas, Drawable drawable, Matrix drawMatrix) {
+        // ImageView draws past its bounds if the parent doesn't clip them, the raster doesn't
+        final ViewParent parent = photoView.getParent();
+        if (!enabled || !isRasterizable(drawable) ||
+                ((parent instanceof ViewGroup) && !((ViewGroup) parent).getClipChildren())) {
+            if (this.drawable != null) clear();
+            return false;
+        }
+        if (drawable != this.drawable) {
+            clear();
+            this.drawable = drawable;
+            lastMatrix.set(drawMatrix);
+            // The image may not move at all, so there may be no settle event
+            if (photoView.getInteractionState() == PhotoView.INTERACTION_IDLE) photoView.post(rasterizeRunnable);
+        } else if (!drawMatrix.equals(lastMatrix)) {
+            lastMatrix.set(drawMatrix);
+            cancel();
+            photoView.removeCallbacks(rasterizeRunnable);
+        }
+        if ((raster == null) || !drawMatrix.equals(rasterMatrix)) return false;
+        paint.setColorFilter(photoView.getColorFilter());
+        paint.setAlpha(photoView.getImageAlpha());
+        final int saveCount = canvas.save();
+        canvas.translate(photoView.getPaddingLeft() + rasterLeft, photoView.getPaddingTop() + rasterTop);
+        canvas.drawBitmap(raster, 0, 0, paint);
+        canvas.restoreToCount(saveCount);
+        return true;
+    }
+
+    private void rasterize() {
+        // Already made, or being made, for this matrix: any change of the matrix cancels the pending one
+        if ((drawable == null) || (pending != null) || ((raster != null) && rasterMatrix.equals(lastMatrix))) return;
+        lastMatrix.getValues(matrixValues);
+        // The Drawable is sharp enough up to its intrinsic size
+        if (Math.hypot(matrixValues[Matrix.MSCALE_X], matrixValues[Matrix.MSKEW_Y]) <= 1.0) {
+            raster = null;
+            return;
+        }
+        final Rect bounds = new Rect(drawable.getBounds());
+        visibleRect.set(bounds);
+        lastMatrix.mapRect(visibleRect);
+        final int paddingLeft = photoView.getPaddingLeft(), paddingTop = photoView.getPaddingTop();
+        final boolean visible;
+        if (photoView.getCropToPadding()) {
+            visible = visibleRect.intersect(0, 0, photoView.getWidth() - paddingLeft - photoView.getPaddingRight(),
+                    photoView.getHeight() - paddingTop - photoView.getPaddingBottom());
+        } else {
+            visible = visibleRect.intersect(-paddingLeft, -paddingTop,
+                    photoView.getWidth() - paddingLeft, photoView.getHeight() - paddingTop);
+        }
+        if (!visible) {
+            raster = null;
+            return;
+        }
+        final int left = (int) Math.floor(visibleRect.left), top = (int) Math.floor(visibleRect.top),
+                width = (int) Math.ceil(visibleRect.right) - left, height = (int) Math.ceil(visibleRect.bottom) - top;
+        if ((width <= 0) || (height <= 0)) return;
+        // A private copy, so that the original can keep drawing on the main thread
+        final Drawable copy = copyOf(drawable, photoView);
+        if (copy == null) return;
+        copy.setBounds(bounds);
+        final Matrix matrix = new Matrix(lastMatrix);
+        final int generation = this.generation;
+        pending = DecodeScheduler.getInstance().submit(photoView, new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap;
+                try {
+                    bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                } catch (OutOfMemoryError e) {
+                    return;
+                }
+                final Canvas canvas = new Canvas(bitmap);
+                canvas.translate(-left, -top);
+                canvas.concat(matrix);
+                copy.draw(canvas);
+                photoView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != VectorRasterizer.this.generation) return;
+                        pending = null;
+                        raster = bitmap;
+                        rasterMatrix.set(matrix);
+                        rasterLeft = left;
+                        rasterTop = top;
+                        photoView.invalidate();
+                        BitmapMemoryBudget.getInstance().requestCheck();
+                    }
+                });
+            }
+        });
+    }
+}
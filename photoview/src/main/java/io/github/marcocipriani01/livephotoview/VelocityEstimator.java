@@ -0,0 +1,103 @@
+/*
+ Copyright 2020 Chris Banes and Marco Cipriani (@marcocipriani01)
+ <p>
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+ <p>
+ http://www.apache.org/licenses/LICENSE-2.0
+ <p>
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package io.github.marcocipriani01.livephotoview;
+
+/**
+ * Estimates the velocity of a pointer with a least-squares line fit of its recent positions,
+ * kept in a ring buffer that is reused for every gesture.
+ */
+class VelocityEstimator {
+
+    private static final int CAPACITY = 20;
+    /**
+     * Only the samples this recent are used, in milliseconds.
+     */
+    private static final long HORIZON = 100;
+    /**
+     * A pause this long between two samples means that the pointer stopped, in milliseconds.
+     */
+    private static final long ASSUME_STOPPED = 40;
+
+    private final long[] times = new long[CAPACITY];
+    private final float[] xs = new float[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private int next = 0;
+    private int size = 0;
+    private float velocityX = 0f;
+    private float velocityY = 0f;
+
+    void clear() {
+        next = size = 0;
+        velocityX = velocityY = 0f;
+    }
+
+    void add(long time, float x, float y) {
+        times[next] = time;
+        xs[next] = x;
+        ys[next] = y;
+        next = (next + 1) % CAPACITY;
+        if (size < CAPACITY) size++;
+    }
+
+    /**
+     * Computes the velocity, see {@link #getVelocityX()} and {@link #getVelocityY()}.
+     *
+     * @param units the time unit of the velocity, in milliseconds: 1000 gives pixels per second
+     */
+    void computeVelocity(int units) {
+        velocityX = velocityY = 0f;
+        if (size < 2) return;
+        final int newest = (next + CAPACITY - 1) % CAPACITY;
+        final long newestTime = times[newest];
+        // Count the samples to fit, and compute their means
+        int count = 0;
+        long previousTime = newestTime;
+        double meanT = 0.0, meanX = 0.0, meanY = 0.0;
+        for (int i = 0; i < size; i++) {
+            final int index = (newest + CAPACITY - i) % CAPACITY;
+            final long time = times[index];
+            if ((newestTime - time > HORIZON) || (previousTime - time > ASSUME_STOPPED)) break;
+            meanT += time - newestTime;
+            meanX += xs[index];
+            meanY += ys[index];
+            previousTime = time;
+            count++;
+        }
+        if (count < 2) return;
+        meanT /= count;
+        meanX /= count;
+        meanY /= count;
+        double sumTT = 0.0, sumTX = 0.0, sumTY = 0.0;
+        for (int i = 0; i < count; i++) {
+            final int index = (newest + CAPACITY - i) % CAPACITY;
+            final double t = times[index] - newestTime - meanT;
+            sumTT += t * t;
+            sumTX += t * (xs[index] - meanX);
+            sumTY += t * (ys[index] - meanY);
+        }
+        if (sumTT <= 0.0) return;
+        velocityX = (float) (sumTX / sumTT * units);
+        velocityY = (float) (sumTY / sumTT * units);
+    }
+
+    float getVelocityX() {
+        return velocityX;
+    }
+
+    float getVelocityY() {
+        return velocityY;
+    }
+}
@@ -16,5 +16,7 @@ public class PicassoSampleActivity extends AppCompatActivity {
         setContentView(R.layout.activity_simple);
 
         final PhotoView photoView = findViewById(R.id.iv_photo);
+        // Any loader works here: it only needs to honour the requested size
+        photoView.setImageSource(new ResourceImageSource(getResources(), R.drawable.wallpaper));
     }
 }
@@ -0,0 +1,46 @@
+package io.github.marcocipriani01.livephotoview.sample;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import io.github.marcocipriani01.livephotoview.ImageRequest;
+import io.github.marcocipriani01.livephotoview.ImageSource;
+
+/**
+ * Decodes a drawable resource at the resolution requested by the PhotoView.
+ */
+public class ResourceImageSource implements ImageSource {
+
+    private final Resources resources;
+    private final int resId;
+    private final int width;
+    private final int height;
+
+    public ResourceImageSource(Resources resources, int resId) {
+        this.resources = resources;
+        this.resId = resId;
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, bounds);
+        width = bounds.outWidth;
+        height = bounds.outHeight;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public Bitmap decode(ImageRequest request) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = request.getSampleSize();
+        return BitmapFactory.decodeResource(resources, resId, options);
+    }
+}
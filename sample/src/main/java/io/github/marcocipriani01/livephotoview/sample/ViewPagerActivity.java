@@ -54,12 +54,23 @@ public class ViewPagerActivity extends AppCompatActivity {
         @Override
         public View instantiateItem(ViewGroup container, int position) {
             PhotoView photoView = new PhotoView(container.getContext());
-            photoView.setImageResource(sDrawables[position]);
+            photoView.setImageSource(new ResourceImageSource(container.getResources(), sDrawables[position]));
             // Now just add PhotoView to ViewPager and return it
             container.addView(photoView, LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
             return photoView;
         }
 
+        @Override
+        public void setPrimaryItem(@NonNull ViewGroup container, int position, @NonNull Object object) {
+            super.setPrimaryItem(container, position, object);
+            // Decode the current page first, then its neighbours
+            for (int i = 0; i < container.getChildCount(); i++) {
+                PhotoView photoView = (PhotoView) container.getChildAt(i);
+                photoView.setDecodePriority((photoView == object) ?
+                        PhotoView.DECODE_PRIORITY_VISIBLE : PhotoView.DECODE_PRIORITY_NEIGHBOUR);
+            }
+        }
+
         @Override
         public void destroyItem(ViewGroup container, int position, @NonNull Object object) {
             container.removeView((View) object);